@@ -0,0 +1,451 @@
+/* ApproximateBlurEngine.java */
+
+/**
+ *  The ApproximateBlurEngine class approximates many iterations of 3x3 box
+ *  blurring in a fixed number of passes, whatever the number of iterations.
+ *
+ *  n iterations of the 3x3 box spread each pixel over a (2n + 1)-pixel-wide
+ *  kernel that is nearly Gaussian, with variance 2n / 3 along each axis.
+ *  The engine applies a few wider box filters instead, whose combined
+ *  variance is as close to 2n / 3 as odd box widths allow.  Each box is
+ *  applied with running sums along the rows and then down the columns (a
+ *  summed-area table, computed one axis at a time), so a pass costs the same
+ *  for any width.  Intensities are kept in 16.16 fixed point, so the sums
+ *  are exact integer arithmetic.  Near the borders each box is divided by
+ *  the number of pixels it covers inside the image, as
+ *  PixImage.getBluredPixel() does.  For six iterations or fewer, the passes
+ *  are exactly the 3x3 box, borders included.
+ *
+ *  The result cannot equal repeated getBluredPixel() calls, because those
+ *  round toward zero after every iteration.  Each rounding loses less than
+ *  one intensity level, and blurring never amplifies earlier losses, so the
+ *  exact result lies in (R - n, R], where R is the result of n iterations
+ *  computed without rounding.  How much is lost depends on the data:
+ *  nothing where every 3x3 average is a whole number, as in flat regions,
+ *  and up to nearly n levels on noise.  The engine reports R itself,
+ *  rounded to the nearest integer, so flat regions stay flat.  For a pixel
+ *  at least reach() pixels from every border of an image at least 2x2, the
+ *  report is within errorBound() of R; see that method.  Within reach()
+ *  pixels of a border the two kernels are cut off differently and the bound
+ *  is not guaranteed; on high-contrast images the error there can be
+ *  somewhat larger than errorBound().
+ *
+ *  For MAX_PASSES iterations or fewer the approximation would be no faster
+ *  than the exact blur, so PixImage.boxBlurApproximate() calls
+ *  PixImage.boxBlur() instead.  chooseRadii() and the bound still describe
+ *  that case:  the passes are exactly the 3x3 box, and reach() and
+ *  errorBound() are zero.
+ */
+
+import java.util.Arrays;
+
+class ApproximateBlurEngine {
+
+    /**
+     *  The largest number of box passes the engine considers.  Up to this
+     *  many iterations, the approximation is no cheaper than the exact blur.
+     */
+    static final int MAX_PASSES = 6;
+
+    /**
+     *  Intensities are kept in fixed point with FRACTION_BITS bits after the
+     *  binary point, and box averages are taken by multiplying by
+     *  reciprocals with RECIPROCAL_BITS bits after the binary point.
+     */
+    private static final int FRACTION_BITS = 16;
+    private static final int RECIPROCAL_BITS = 24;
+
+    private final int width;
+    private final int height;
+    private final int numIterations;
+
+    /**
+     *  radii[p] is the radius of the box of pass p; its width is
+     *  2 * radii[p] + 1.
+     */
+    private final int[] radii;
+
+    /**
+     *  The L1 distance between the 1D kernel of the boxes in radii[] and the
+     *  1D kernel of numIterations 3-pixel boxes.
+     */
+    private final double distance;
+
+    /**
+     *  ApproximateBlurEngine() constructs an engine that approximates
+     *  numIterations iterations of blurring on images of the given size.
+     *  Choosing the passes takes time proportional to numIterations, which
+     *  is small next to a single pass over any image.
+     *
+     *  @param width the width of the images to blur.
+     *  @param height the height of the images to blur.
+     *  @param numIterations the number of iterations; must be positive.
+     */
+    ApproximateBlurEngine(int width, int height, int numIterations) {
+        this.width = width;
+        this.height = height;
+        this.numIterations = numIterations;
+        if (numIterations <= MAX_PASSES) {
+            this.radii = chooseRadii(numIterations, null);
+            this.distance = 0;
+        } else {
+            double[] exact = exactKernel(numIterations);
+            this.radii = chooseRadii(numIterations, exact);
+            this.distance = kernelDistance(radii, exact);
+        }
+    }
+
+    /**
+     *  reach() returns how far from the borders a pixel must be for
+     *  errorBound() to hold:  zero if the passes are exactly the 3x3 box,
+     *  and otherwise the larger of the two kernels' radii.
+     *
+     *  @return the distance from the borders.
+     */
+    int reach() {
+        if (numIterations <= MAX_PASSES) {
+            return 0;
+        }
+        int reach = 0;
+        for (int r : radii) {
+            reach += r;
+        }
+        return Math.max(reach, numIterations);
+    }
+
+    /**
+     *  errorBound() returns the largest difference, in intensity levels,
+     *  between the approximation and R, the result of numIterations
+     *  iterations of PixImage.getBluredPixel() computed without rounding,
+     *  for pixels at least reach() from every border.  It does not depend
+     *  on the image.  It is the sum of
+     *
+     *    - 255 times the L1 distance between the two 1D kernels, for the
+     *      difference between the kernels (both 2D kernels sum to 1, so
+     *      their difference applied to intensities in 0...255 is at most
+     *      127.5 times their L1 distance, and the L1 distance between two
+     *      separable kernels is at most twice that of their rows);
+     *    - 1 / 2, for rounding the approximation;
+     *    - the fixed-point error of each box average, which is at most
+     *      (width / 2 + 1) / 2^FRACTION_BITS levels for a box of the given
+     *      width (the reciprocal is within 2^-(RECIPROCAL_BITS + 1) of 1 /
+     *      width, multiplied by a sum below width * 2^(8 + FRACTION_BITS),
+     *      plus one rounding), taken twice per pass.
+     *
+     *  The exact blur lies below R by its own rounding loss, which is less
+     *  than numIterations and depends on the image (see the class comment),
+     *  so the approximation minus the exact blur lies between -errorBound()
+     *  and errorBound() + numIterations.
+     *
+     *  For MAX_PASSES iterations or fewer the bound is zero, because
+     *  PixImage.boxBlurApproximate() then returns the exact blur.
+     *
+     *  @return the bound on the error of interior pixels.
+     */
+    double errorBound() {
+        if (numIterations <= MAX_PASSES) {
+            return 0;
+        }
+        double fixedPoint = 0;
+        for (int r : radii) {
+            fixedPoint += 2 * ((2 * r + 1) / 2.0 + 1) / (1 << FRACTION_BITS);
+        }
+        return 255 * distance + 0.5 + fixedPoint;
+    }
+
+    /**
+     *  blur() returns a newly constructed PixImage holding the approximate
+     *  blur of image.  The input is not changed.
+     *
+     *  @param image the image to blur; it must have this engine's size.
+     *  @return the blurred image.
+     */
+    PixImage blur(PixImage image) {
+        int size = width * height;
+        short[][] planes = new short[3][size];
+        image.copyToPlanes(planes[0], planes[1], planes[2]);
+
+        int[] front = new int[size];
+        int[] back = new int[size];
+        long[] columns = new long[width];
+        int widest = 0;
+        for (int r : radii) {
+            widest = Math.max(widest, 2 * r + 1);
+        }
+        long[] reciprocals = new long[widest + 1];
+        for (int k = 1 ; k <= widest ; k ++) {
+            reciprocals[k] = Math.round((double) (1L << RECIPROCAL_BITS) / k);
+        }
+        // Add 1 / 2 so that the final shift rounds.
+        int offset = 1 << (FRACTION_BITS - 1);
+
+        for (int c = 0 ; c < 3 ; c ++) {
+            short[] plane = planes[c];
+            for (int i = 0 ; i < size ; i ++) {
+                front[i] = plane[i] << FRACTION_BITS;
+            }
+            for (int r : radii) {
+                boxRows(front, back, r, reciprocals);
+                boxColumns(back, front, r, columns, reciprocals);
+            }
+            for (int i = 0 ; i < size ; i ++) {
+                int value = (front[i] + offset) >> FRACTION_BITS;
+                plane[i] = (short) Math.max(0, Math.min(255, value));
+            }
+        }
+
+        PixImage result = new PixImage(width, height, image.getStorage());
+        result.copyFromPlanes(planes[0], planes[1], planes[2]);
+        return result;
+    }
+
+    /**
+     *  average() returns sum * reciprocal, rounded, where reciprocal is a
+     *  fixed-point reciprocal from reciprocals[].
+     */
+    private static int average(long sum, long reciprocal) {
+        return (int) ((sum * reciprocal + (1L << (RECIPROCAL_BITS - 1))) >>
+                      RECIPROCAL_BITS);
+    }
+
+    /**
+     *  boxRows() averages each pixel of src with the pixels up to radius to
+     *  its left and right, within the image, and writes the averages to dst.
+     *  Each row is read once, keeping a running sum of the window.
+     *
+     *  @param src the plane to read, indexed x + y * width.
+     *  @param dst the plane to write, indexed x + y * width.
+     *  @param radius the radius of the box.
+     *  @param reciprocals reciprocals[k] is 1 / k in fixed point, for k up
+     *  to 2 * radius + 1.
+     */
+    private void boxRows(int[] src, int[] dst, int radius,
+                         long[] reciprocals) {
+        long scale = reciprocals[2 * radius + 1];
+        for (int y = 0 ; y < height ; y ++) {
+            int base = y * width;
+            if (width <= 2 * radius + 1) {
+                // Every window is cut off by a border.
+                for (int x = 0 ; x < width ; x ++) {
+                    int lo = Math.max(x - radius, 0);
+                    int hi = Math.min(x + radius + 1, width);
+                    long sum = 0;
+                    for (int i = lo ; i < hi ; i ++) {
+                        sum += src[base + i];
+                    }
+                    dst[base + x] = average(sum, reciprocals[hi - lo]);
+                }
+                continue;
+            }
+
+            // sum holds pixels x - radius...x + radius - 1, within the image,
+            // on entry to each step.
+            long sum = 0;
+            for (int x = 0 ; x < radius ; x ++) {
+                sum += src[base + x];
+            }
+            for (int x = 0 ; x < radius ; x ++) {
+                sum += src[base + x + radius];
+                dst[base + x] = average(sum, reciprocals[x + radius + 1]);
+            }
+            for (int x = radius ; x < width - radius ; x ++) {
+                sum += src[base + x + radius];
+                dst[base + x] = average(sum, scale);
+                sum -= src[base + x - radius];
+            }
+            for (int x = width - radius ; x < width ; x ++) {
+                dst[base + x] = average(sum, reciprocals[width - x + radius]);
+                sum -= src[base + x - radius];
+            }
+        }
+    }
+
+    /**
+     *  boxColumns() averages each pixel of src with the pixels up to radius
+     *  above and below it, within the image, and writes the averages to dst.
+     *  The image is read one row at a time, keeping a running sum of each
+     *  column's window.
+     *
+     *  @param src the plane to read, indexed x + y * width.
+     *  @param dst the plane to write, indexed x + y * width.
+     *  @param radius the radius of the box.
+     *  @param columns scratch space for width running sums.
+     *  @param reciprocals reciprocals[k] is 1 / k in fixed point, for k up
+     *  to 2 * radius + 1.
+     */
+    private void boxColumns(int[] src, int[] dst, int radius, long[] columns,
+                            long[] reciprocals) {
+        Arrays.fill(columns, 0);
+        // Start with rows 0...radius - 1 in the window.
+        for (int y = 0 ; y < Math.min(radius, height) ; y ++) {
+            addRow(src, y, columns, 1);
+        }
+        for (int y = 0 ; y < height ; y ++) {
+            if (y + radius < height) {
+                addRow(src, y + radius, columns, 1);
+            }
+            if (y - radius - 1 >= 0) {
+                addRow(src, y - radius - 1, columns, -1);
+            }
+            int count = Math.min(y + radius + 1, height) -
+                        Math.max(y - radius, 0);
+            long scale = reciprocals[count];
+            int base = y * width;
+            for (int x = 0 ; x < width ; x ++) {
+                dst[base + x] = average(columns[x], scale);
+            }
+        }
+    }
+
+    /**
+     *  addRow() adds sign times row y of src to columns.
+     */
+    private void addRow(int[] src, int y, long[] columns, int sign) {
+        int base = y * width;
+        for (int x = 0 ; x < width ; x ++) {
+            columns[x] += sign * src[base + x];
+        }
+    }
+
+    /**
+     *  chooseRadii() returns the box radii that approximate n iterations of
+     *  the 3x3 box.  Up to MAX_PASSES iterations, that is n boxes of radius
+     *  1.  Otherwise, for each number of passes from 3 to MAX_PASSES, it
+     *  takes the mix of two consecutive odd widths whose variance is closest
+     *  to 2n / 3, and keeps the number of passes whose kernel is closest to
+     *  the exact one.
+     *
+     *  @param n the number of iterations.
+     *  @param exact the 1D exact kernel, from exactKernel(n); unused (and
+     *  may be null) if n <= MAX_PASSES.
+     *  @return the radius of each pass.
+     */
+    static int[] chooseRadii(int n, double[] exact) {
+        if (n <= MAX_PASSES) {
+            int[] radii = new int[n];
+            Arrays.fill(radii, 1);
+            return radii;
+        }
+
+        double variance = 2.0 * n / 3;
+        int[] best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (int k = 3 ; k <= MAX_PASSES ; k ++) {
+            int lower = (int) Math.floor(Math.sqrt(12 * variance / k + 1));
+            if (lower % 2 == 0) {
+                lower --;
+            }
+            // m passes of width lower and k - m of width lower + 2 have
+            // variance sum (w * w - 1) / 12; choose m to match variance.
+            int m = (int) Math.round((12 * variance - k * (double) lower *
+                                      lower - 4.0 * k * lower - 3 * k) /
+                                     (-4.0 * lower - 4));
+            m = Math.max(0, Math.min(k, m));
+            int[] radii = new int[k];
+            for (int p = 0 ; p < k ; p ++) {
+                radii[p] = (p < m ? lower : lower + 2) / 2;
+            }
+            double distance = kernelDistance(radii, exact);
+            if (distance < bestDistance) {
+                best = radii;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     *  exactKernel() returns the 1D kernel of n iterations of the 3-pixel
+     *  box, away from the borders:  the coefficients of (1 + x + x^2)^n,
+     *  divided by their sum.  They are computed from the ratios of
+     *  consecutive coefficients, which follow from the recurrence
+     *
+     *    k a[k] = (n - k + 1) a[k - 1] + (2n - k + 2) a[k - 2],
+     *
+     *  using logarithms so that nothing overflows, in time proportional to
+     *  n.  Only the first half is computed; the kernel is symmetric.
+     *
+     *  @param n the number of iterations.
+     *  @return the 2n + 1 weights of the kernel.
+     */
+    static double[] exactKernel(int n) {
+        double[] logs = new double[n + 1];
+        double ratio = 0;
+        for (int k = 1 ; k <= n ; k ++) {
+            // ratio is a[k] / a[k - 1]; for k = 1 there is no a[k - 2].
+            ratio = (k == 1) ? n
+                             : ((n - k + 1) + (2.0 * n - k + 2) / ratio) / k;
+            logs[k] = logs[k - 1] + Math.log(ratio);
+        }
+
+        double[] exact = new double[2 * n + 1];
+        double sum = 0;
+        for (int k = 0 ; k <= n ; k ++) {
+            // Scale so the center weight is 1 before normalizing.
+            exact[k] = exact[2 * n - k] = Math.exp(logs[k] - logs[n]);
+            sum += (k == n) ? exact[k] : 2 * exact[k];
+        }
+        for (int k = 0 ; k < exact.length ; k ++) {
+            exact[k] /= sum;
+        }
+        return exact;
+    }
+
+    /**
+     *  kernelDistance() returns the L1 distance between the 1D kernel of the
+     *  boxes with the given radii and the given 1D kernel.
+     *
+     *  @param radii the radius of each box.
+     *  @param exact the 1D exact kernel, from exactKernel().
+     *  @return the sum over the kernels' cells of the absolute differences.
+     */
+    static double kernelDistance(int[] radii, double[] exact) {
+        double[] approximate = new double[] { 1 };
+        for (int r : radii) {
+            approximate = convolve(approximate, r);
+        }
+
+        // Both kernels are centered; pad the narrower one to match.
+        int length = Math.max(exact.length, approximate.length);
+        double[] a = center(exact, length);
+        double[] b = center(approximate, length);
+        double distance = 0;
+        for (int i = 0 ; i < length ; i ++) {
+            distance += Math.abs(a[i] - b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     *  convolve() returns the convolution of kernel with a box of the given
+     *  radius, normalized to sum to 1.  It keeps a running sum of the
+     *  window, so it takes time proportional to the result's length.
+     */
+    private static double[] convolve(double[] kernel, int radius) {
+        int width = 2 * radius + 1;
+        double[] result = new double[kernel.length + width - 1];
+        // sum holds kernel[i - width + 1...i], within the kernel.
+        double sum = 0;
+        for (int i = 0 ; i < result.length ; i ++) {
+            if (i < kernel.length) {
+                sum += kernel[i];
+            }
+            if (i - width >= 0) {
+                sum -= kernel[i - width];
+            }
+            result[i] = sum / width;
+        }
+        return result;
+    }
+
+    /**
+     *  center() returns kernel padded with zeros on both sides to the given
+     *  odd length.
+     */
+    private static double[] center(double[] kernel, int length) {
+        double[] result = new double[length];
+        System.arraycopy(kernel, 0, result, (length - kernel.length) / 2,
+                         kernel.length);
+        return result;
+    }
+}
@@ -0,0 +1,468 @@
+/* BatchPipeline.java */
+
+/**
+ *  The BatchPipeline class runs an image filter over many TIFF files in one
+ *  JVM, so that JVM startup and JIT warm-up are paid once.  Each file passes
+ *  through three stages:
+ *
+ *      read   - decode the TIFF file into a PixImage (I/O threads);
+ *      filter - compute the output images (compute threads);
+ *      write  - encode the output images as TIFF files (I/O threads).
+ *
+ *  The stages are connected by bounded queues, so a slow stage holds back
+ *  the ones before it and no more than a few images are in memory at once.
+ *  Reading and writing have threads of their own, separate from the compute
+ *  threads, so that disk waits overlap with filtering.  Each image is
+ *  filtered on one compute thread; images are processed in parallel with
+ *  each other rather than split into bands.
+ *
+ *  The readers decode with TIFFDecoder, which memory-maps each file; the
+ *  mappings are released by the garbage collector, not when a file is done
+ *  (see TIFFDecoder.close()), so a long batch may hold a few at once.
+ *
+ *  When every file has been processed, run() prints the throughput of each
+ *  stage.  A file that a stage cannot process is reported and skipped.  If
+ *  a stage's thread dies instead (for example, of an OutOfMemoryError), the
+ *  other threads are stopped and run() rethrows what killed it, so a
+ *  failure never leaves the pipeline waiting on a stage that is gone.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BatchPipeline {
+
+  /**
+   * A Filter computes the output images for one input image.  It is called
+   * concurrently from several compute threads, on different images.
+   */
+  public interface Filter {
+    /**
+     * filter() returns the images to write for the given input image.
+     *
+     * @param image the input image.
+     * @param file the input file.
+     * @return the output images.
+     */
+    Output[] filter(PixImage image, File file);
+  }
+
+  /**
+   * An Output is one image to write:  either a PixImage, written
+   * uncompressed, or a RunLengthEncoding, written with PackBits.
+   */
+  public static class Output {
+    final File file;
+    final PixImage image;
+    final RunLengthEncoding rle;
+
+    public Output(File file, PixImage image) {
+      this.file = file;
+      this.image = image;
+      this.rle = null;
+    }
+
+    public Output(File file, RunLengthEncoding rle) {
+      this.file = file;
+      this.image = null;
+      this.rle = rle;
+    }
+  }
+
+  // The number of reader threads and of writer threads.
+  private static final int DEFAULT_IO_THREADS = 2;
+
+  /**
+   * The prefixes that Blur and Sobel add to the names of the files they
+   * write.  inputFiles() skips files with these prefixes in a directory, so
+   * that running a batch again does not filter the previous run's outputs.
+   */
+  public static final String[] OUTPUT_PREFIXES = { "blur_", "edge_", "rle_" };
+
+  // A Job carries one file through the stages.  A Job with a null file
+  // tells the thread that takes it to stop.
+  private static class Job {
+    final File file;
+    PixImage image;
+    Output[] outputs;
+
+    Job(File file) {
+      this.file = file;
+    }
+  }
+
+  private static final Job DONE = new Job(null);
+
+  /**
+   * A StageStats records the work done by one stage.
+   */
+  private static class StageStats {
+    final String name;
+    final int threads;
+    final AtomicInteger images = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicLong pixels = new AtomicLong();
+    final AtomicLong busyNanos = new AtomicLong();
+
+    StageStats(String name, int threads) {
+      this.name = name;
+      this.threads = threads;
+    }
+
+    void record(long startNanos, long pixelCount) {
+      record(startNanos, pixelCount, true);
+    }
+
+    // record() counts the image only if complete; the write stage passes
+    // false when one of an image's outputs could not be written.
+    void record(long startNanos, long pixelCount, boolean complete) {
+      busyNanos.addAndGet(System.nanoTime() - startNanos);
+      if (complete) {
+        images.incrementAndGet();
+      }
+      pixels.addAndGet(pixelCount);
+    }
+
+    /**
+     * report() prints the number of images, the number of files the stage
+     * could not process, the total time the stage's threads spent working,
+     * and the stage's throughput in megapixels per second of that time and
+     * per second of wall-clock time.
+     */
+    void report(long wallNanos) {
+      double busy = busyNanos.get() / 1e9;
+      double megapixels = pixels.get() / 1e6;
+      System.out.println(String.format(
+          "  %-7s %2d threads %6d images %4d failed %9.2f s busy " +
+          "%9.1f Mpixel/s/thread %9.1f Mpixel/s",
+          name, threads, images.get(), failures.get(), busy,
+          busy == 0 ? 0 : megapixels / busy, megapixels / (wallNanos / 1e9)));
+    }
+  }
+
+  private final Filter filter;
+  private final int computeThreads;
+  private final int ioThreads;
+
+  /**
+   * BatchPipeline() constructs a pipeline.
+   *
+   * @param filter the filter to apply to every image.
+   * @param computeThreads the number of threads that run the filter.
+   */
+  public BatchPipeline(Filter filter, int computeThreads) {
+    this.filter = filter;
+    this.computeThreads = Math.max(1, computeThreads);
+    this.ioThreads = DEFAULT_IO_THREADS;
+  }
+
+  /**
+   * inputFiles() expands a batch argument into the files to process.  A
+   * directory names every .tif or .tiff file in it, in alphabetical order,
+   * as it is when inputFiles() is called (so outputs written later are not
+   * picked up), except those whose names begin with one of OUTPUT_PREFIXES
+   * (so outputs written by an earlier run are not picked up either).  An
+   * argument beginning with "@" names a text file listing one input file
+   * per line.  Anything else is a single input file.
+   *
+   * @param arg the batch argument.
+   * @return the input files.
+   * @throws IOException if a list file cannot be read.
+   */
+  public static List<File> inputFiles(String arg) throws IOException {
+    List<File> files = new ArrayList<File>();
+    if (arg.startsWith("@")) {
+      BufferedReader reader =
+          new BufferedReader(new FileReader(arg.substring(1)));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.length() > 0) {
+            files.add(new File(line));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } else if (new File(arg).isDirectory()) {
+      File[] entries = new File(arg).listFiles();
+      Arrays.sort(entries);
+      for (File entry : entries) {
+        String name = entry.getName().toLowerCase();
+        if (entry.isFile() &&
+            (name.endsWith(".tif") || name.endsWith(".tiff")) &&
+            !isOutput(entry)) {
+          files.add(entry);
+        }
+      }
+    } else {
+      files.add(new File(arg));
+    }
+    return files;
+  }
+
+  /**
+   * isOutput() returns true if the file's name begins with one of
+   * OUTPUT_PREFIXES.
+   */
+  private static boolean isOutput(File file) {
+    for (String prefix : OUTPUT_PREFIXES) {
+      if (file.getName().startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * run() processes the given files and prints each stage's throughput.
+   * Files that cannot be read, filtered, or written are reported on
+   * System.err and skipped.  If a pipeline thread dies of anything else,
+   * run() stops the other threads and rethrows it once they have finished,
+   * without printing the throughput.
+   *
+   * @param files the input files.
+   * @throws InterruptedException if this thread is interrupted.
+   */
+  public void run(final List<File> files) throws InterruptedException {
+    int capacity = 2 * computeThreads;
+    final BlockingQueue<Job> decoded = new ArrayBlockingQueue<Job>(capacity);
+    final BlockingQueue<Job> filtered = new ArrayBlockingQueue<Job>(capacity);
+    final StageStats read = new StageStats("read", ioThreads);
+    final StageStats compute = new StageStats("filter", computeThreads);
+    final StageStats write = new StageStats("write", ioThreads);
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger readersLeft = new AtomicInteger(ioThreads);
+    final AtomicInteger computersLeft = new AtomicInteger(computeThreads);
+
+    // A thread that dies stores what killed it in fatal and interrupts the
+    // others.  The stage handoffs are skipped from then on, because the
+    // threads that would take them may be gone.
+    final List<Thread> threads = new ArrayList<Thread>();
+    final AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+    Thread.UncaughtExceptionHandler abort =
+        new Thread.UncaughtExceptionHandler() {
+          public void uncaughtException(Thread thread, Throwable e) {
+            if (fatal.compareAndSet(null, e)) {
+              for (Thread other : threads) {
+                other.interrupt();
+              }
+            }
+          }
+        };
+
+    for (int i = 0; i < ioThreads; i++) {
+      threads.add(new Thread("batch-read-" + i) {
+        public void run() {
+          try {
+            for (int f = next.getAndIncrement(); f < files.size();
+                 f = next.getAndIncrement()) {
+              if (aborting(fatal, null)) {
+                return;
+              }
+              Job job = new Job(files.get(f));
+              long start = System.nanoTime();
+              try {
+                job.image = ImageUtils.readTIFFPix(job.file.getPath());
+              } catch (RuntimeException e) {
+                if (aborting(fatal, e)) {
+                  return;
+                }
+                fail(read, job.file, e);
+                continue;
+              }
+              read.record(start, pixels(job.image));
+              decoded.put(job);
+            }
+          } catch (InterruptedException e) {
+            return;
+          } finally {
+            // The last reader to finish stops every compute thread, even
+            // if it is dying.
+            if (readersLeft.decrementAndGet() == 0) {
+              handOff(decoded, computeThreads, fatal);
+            }
+          }
+        }
+      });
+    }
+    for (int i = 0; i < computeThreads; i++) {
+      threads.add(new Thread("batch-filter-" + i) {
+        public void run() {
+          try {
+            for (Job job = decoded.take(); job != DONE; job = decoded.take()) {
+              if (aborting(fatal, null)) {
+                return;
+              }
+              long start = System.nanoTime();
+              try {
+                job.outputs = filter.filter(job.image, job.file);
+              } catch (RuntimeException e) {
+                fail(compute, job.file, e);
+                continue;
+              }
+              compute.record(start, pixels(job.image));
+              job.image = null;
+              filtered.put(job);
+            }
+          } catch (InterruptedException e) {
+            return;
+          } finally {
+            if (computersLeft.decrementAndGet() == 0) {
+              handOff(filtered, ioThreads, fatal);
+            }
+          }
+        }
+      });
+    }
+    for (int i = 0; i < ioThreads; i++) {
+      threads.add(new Thread("batch-write-" + i) {
+        public void run() {
+          TIFFWriter writer = new TIFFWriter();
+          try {
+            for (Job job = filtered.take(); job != DONE;
+                 job = filtered.take()) {
+              long start = System.nanoTime();
+              long written = 0;
+              boolean complete = true;
+              for (Output output : job.outputs) {
+                if (aborting(fatal, null)) {
+                  return;
+                }
+                try {
+                  if (output.rle != null) {
+                    writer.write(output.rle, output.file.getPath());
+                  } else {
+                    writer.write(output.image, output.file.getPath());
+                  }
+                } catch (IOException e) {
+                  if (aborting(fatal, e)) {
+                    return;
+                  }
+                  fail(write, output.file, e);
+                  complete = false;
+                  continue;
+                } catch (RuntimeException e) {
+                  if (aborting(fatal, e)) {
+                    return;
+                  }
+                  fail(write, output.file, e);
+                  complete = false;
+                  continue;
+                }
+                written += output.rle != null
+                    ? (long) output.rle.getWidth() * output.rle.getHeight()
+                    : pixels(output.image);
+              }
+              write.record(start, written, complete);
+            }
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.setUncaughtExceptionHandler(abort);
+    }
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long wall = System.nanoTime() - start;
+
+    Throwable e = fatal.get();
+    if (e instanceof Error) {
+      throw (Error) e;
+    } else if (e != null) {
+      throw (RuntimeException) e;
+    }
+
+    System.out.println(String.format("Processed %d files in %.2f s " +
+                                     "(%.1f files/s).", files.size(),
+                                     wall / 1e9, files.size() / (wall / 1e9)));
+    read.report(wall);
+    compute.report(wall);
+    write.report(wall);
+  }
+
+  /**
+   * handOff() puts count DONE jobs on the queue, one for each thread of the
+   * next stage, unless a thread has died (the pipeline is then being
+   * stopped by interrupts, and the next stage may not be there to take
+   * them).
+   */
+  private static void handOff(BlockingQueue<Job> queue, int count,
+                              AtomicReference<Throwable> fatal) {
+    try {
+      for (int t = 0; t < count && fatal.get() == null; t++) {
+        queue.put(DONE);
+      }
+    } catch (InterruptedException e) {
+      // Interrupted by a dying thread; every thread is stopping.
+    }
+  }
+
+  /**
+   * pixels() returns the number of pixels in an image.
+   */
+  private static long pixels(PixImage image) {
+    return (long) image.getWidth() * image.getHeight();
+  }
+
+  /**
+   * aborting() returns true if the calling pipeline thread should stop
+   * quietly:  another thread has died, this thread has been interrupted, or
+   * the exception e (which may be null) was caused by such an interrupt
+   * closing a file channel.  Failures of this kind are not charged to the
+   * file being processed.
+   */
+  private static boolean aborting(AtomicReference<Throwable> fatal,
+                                  Throwable e) {
+    if (fatal.get() != null || Thread.currentThread().isInterrupted()) {
+      return true;
+    }
+    for (; e != null; e = e.getCause()) {
+      if (e instanceof ClosedByInterruptException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * fail() reports a file that a stage could not process.
+   */
+  private static void fail(StageStats stage, File file, Exception e) {
+    stage.failures.incrementAndGet();
+    System.err.println(stage.name + " failed for " + file + ":  " + e);
+  }
+
+  /**
+   * prefixed() returns the file with the given prefix added to its name, in
+   * the same directory.
+   *
+   * @param file the input file.
+   * @param prefix the prefix, such as "blur_".
+   * @return the output file.
+   */
+  public static File prefixed(File file, String prefix) {
+    return new File(file.getParentFile(), prefix + file.getName());
+  }
+}
@@ -0,0 +1,1168 @@
+/* Bench.java */
+
+/**
+ *  The Bench class is a program that times the image operations of this
+ *  project on synthetic images, so that changes to the hot paths can be
+ *  measured.  Each benchmark prints one line per variant it compares.
+ *
+ *  Bench takes the names of the benchmarks to run as parameters, and runs all
+ *  of them if there are none.  For example,
+ *
+ *         java Bench storage
+ *
+ *  Every timing is the fastest of several runs, taken after a few warm-up
+ *  runs so that the JIT compiler has finished with the code being timed.
+ *
+ *  The "suite" benchmark is different:  rather than comparing variants, it
+ *  times each public hot path of the project on synthetic images of several
+ *  sizes and run-length distributions, and prints the mean and standard
+ *  deviation per operation in the manner of JMH, so that its output can be
+ *  kept and compared across changes.  "suite/name" runs only the suite
+ *  benchmarks whose names contain name, as in
+ *
+ *         java Bench suite/boxBlur
+ */
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Bench {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 5;
+
+    /**
+     *  The names of the benchmarks, in the order they are run by default.
+     */
+    private static final String[] NAMES = { "storage", "sobel", "rle", "tiff",
+                                            "strips", "planar", "read",
+                                            "convert", "runfilter",
+                                            "approximate", "incremental",
+                                            "suite" };
+
+    /**
+     *  The image sizes the suite runs on, as { width, height } pairs.
+     */
+    private static final int[][] SUITE_SIZES = { { 256, 256 }, { 640, 480 },
+                                                 { 1920, 1080 } };
+
+    /**
+     *  The run-length distributions the suite runs on.  Each row of a suite
+     *  image is cut into runs of random colors whose lengths are drawn
+     *  uniformly from 1 to the given maximum; "flat" is a single color.
+     */
+    private static final String[] SUITE_RUNS = { "noise", "short", "long",
+                                                 "flat" };
+    private static final int[] SUITE_MAX_RUN = { 1, 8, 256, Integer.MAX_VALUE };
+
+    /**
+     *  How long the suite warms up and measures each benchmark, in
+     *  milliseconds.  Each is done at least once.
+     */
+    private static final long SUITE_WARMUP_MILLIS = 300;
+    private static final long SUITE_MEASURE_MILLIS = 1000;
+
+    /**
+     *  The number of setPixel() calls in one run of the RLE setPixel
+     *  benchmark.
+     */
+    private static final int SET_PIXEL_CALLS = 1024;
+
+    /**
+     *  sink collects results from the code being timed, so that the JIT
+     *  compiler cannot discard the work as dead.
+     */
+    private static long sink;
+
+    /**
+     *  time() runs the task WARMUP_RUNS + TIMED_RUNS times and returns the
+     *  fastest of the timed runs, in milliseconds.
+     *
+     *  @param task the code to time.
+     *  @return the best time in milliseconds.
+     */
+    static double time(Runnable task) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            task.run();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     *  report() prints one timing line.
+     *
+     *  @param label what was timed.
+     *  @param millis the time in milliseconds.
+     */
+    static void report(String label, double millis) {
+        System.out.println(String.format("  %-44s %10.2f ms", label, millis));
+    }
+
+    /**
+     *  randomImage() returns a PixImage of the given size and storage filled
+     *  with random intensities drawn from a fixed seed.
+     *
+     *  @param width the width of the image.
+     *  @param height the height of the image.
+     *  @param storage the storage layout of the image.
+     *  @return a new random PixImage.
+     */
+    static PixImage randomImage(int width, int height,
+                                PixImage.Storage storage) {
+        Random random = new Random(width * 31 + height);
+        PixImage image = new PixImage(width, height, storage);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setPixel(x, y, (short) random.nextInt(256),
+                               (short) random.nextInt(256),
+                               (short) random.nextInt(256));
+            }
+        }
+        return image;
+    }
+
+    /**
+     *  usedMemory() returns the number of bytes in use on the heap, after
+     *  asking the garbage collector to run.
+     *
+     *  @return the approximate number of live bytes.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     *  storage() compares the memory use and row-order read speed of the two
+     *  PixImage storage layouts on a 4K image.
+     */
+    private static void storage() {
+        final int width = 3840;
+        final int height = 2160;
+
+        for (PixImage.Storage storage : PixImage.Storage.values()) {
+            long before = usedMemory();
+            final PixImage image = new PixImage(width, height, storage);
+            long bytes = usedMemory() - before;
+            System.out.println(String.format("  %-44s %10.2f bytes/pixel",
+                                             storage + " memory",
+                                             (double) bytes / (width * height)));
+
+            Random random = new Random(1);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    image.setPixel(x, y, (short) random.nextInt(256),
+                                   (short) random.nextInt(256),
+                                   (short) random.nextInt(256));
+                }
+            }
+
+            report(storage + " row scan, getRed/getGreen/getBlue",
+                   time(new Runnable() {
+                       public void run() {
+                           long sum = 0;
+                           for (int y = 0; y < height; y++) {
+                               for (int x = 0; x < width; x++) {
+                                   sum += image.getRed(x, y) +
+                                       image.getGreen(x, y) + image.getBlue(x, y);
+                               }
+                           }
+                           sink += sum;
+                       }
+                   }));
+
+            report(storage + " row scan, copyRowTo",
+                   time(new Runnable() {
+                       public void run() {
+                           byte[] row = new byte[3 * width];
+                           long sum = 0;
+                           for (int y = 0; y < height; y++) {
+                               image.copyRowTo(y, row, 0);
+                               for (int i = 0; i < row.length; i++) {
+                                   sum += row[i] & 0xFF;
+                               }
+                           }
+                           sink += sum;
+                       }
+                   }));
+        }
+    }
+
+    /**
+     *  sobel() compares mag2gray() with mag2grayTable(), first on their own
+     *  and then inside sobelEdges(), on a 4K image that has been blurred so
+     *  that its energies span the whole range of gray levels.
+     */
+    private static void sobel() {
+        final PixImage image =
+            randomImage(3840, 2160, PixImage.Storage.PACKED).boxBlur(2, 1);
+
+        final long[] energies = new long[1 << 20];
+        Random random = new Random(2);
+        for (int i = 0; i < energies.length; i++) {
+            energies[i] = (long) Math.exp(random.nextDouble() * Math.log(6242400));
+        }
+        report("mag2gray, 1M energies", time(new Runnable() {
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < energies.length; i++) {
+                    sum += PixImage.mag2gray(energies[i]);
+                }
+                sink += sum;
+            }
+        }));
+        report("mag2grayTable, 1M energies", time(new Runnable() {
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < energies.length; i++) {
+                    sum += PixImage.mag2grayTable(energies[i]);
+                }
+                sink += sum;
+            }
+        }));
+
+        for (int table = 0; table < 2; table++) {
+            final SobelEngine engine = new SobelEngine(image);
+            engine.setGrayTable(table == 1);
+            report("sobelEdges 3840x2160, " +
+                   (table == 1 ? "mag2grayTable" : "mag2gray"),
+                   time(new Runnable() {
+                       public void run() {
+                           sink += engine.edges(null).getRed(0, 0);
+                       }
+                   }));
+        }
+    }
+
+    /**
+     *  redOnlyRuns() encodes an image the way the RunLengthEncoding(PixImage)
+     *  constructor used to, comparing only the red intensities of
+     *  neighboring pixels, and returns the number of runs.  It is kept here
+     *  as the baseline for rle().
+     *
+     *  @param image the image to encode.
+     *  @return the number of runs found.
+     */
+    private static int redOnlyRuns(PixImage image) {
+        RunLengthStore runs = new RunLengthStore();
+        int start = 0, end = 0;
+        boolean running = true;
+        short lastPixel = image.getRed(0, 0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (running) {
+                    if (x == 0 && y == 0) {
+                        continue;
+                    }
+                    if (image.getRed(x, y) == lastPixel) {
+                        end++;
+                        continue;
+                    } else {
+                        running = false;
+                    }
+                }
+                if (running == false) {
+                    runs.append(RunLengthStore.pack(lastPixel, lastPixel,
+                                                    lastPixel),
+                                end - start + 1);
+                    start = end;
+                    running = true;
+                }
+                lastPixel = image.getRed(x, y);
+            }
+        }
+        runs.append(RunLengthStore.pack(lastPixel, lastPixel, lastPixel),
+                    end - start + 1);
+        return runs.runCount();
+    }
+
+    /**
+     *  rle() compares the old red-only encoder with the full-color
+     *  RunLengthEncoding(PixImage) constructor on a 4K image made of
+     *  horizontal runs of random colors, in both storage layouts.
+     */
+    private static void rle() {
+        final int width = 3840;
+        final int height = 2160;
+
+        for (PixImage.Storage storage : PixImage.Storage.values()) {
+            final PixImage image = new PixImage(width, height, storage);
+            Random random = new Random(3);
+            byte[] row = new byte[3 * width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; ) {
+                    int length = Math.min(1 + random.nextInt(32), width - x);
+                    int color = random.nextInt(1 << 24);
+                    for (int end = x + length; x < end; x++) {
+                        row[3 * x] = (byte) (color >> 16);
+                        row[3 * x + 1] = (byte) (color >> 8);
+                        row[3 * x + 2] = (byte) color;
+                    }
+                }
+                image.copyRowFrom(y, row, 0);
+            }
+
+            report(storage + " red-only encoder", time(new Runnable() {
+                public void run() {
+                    sink += redOnlyRuns(image);
+                }
+            }));
+            report(storage + " full-color encoder", time(new Runnable() {
+                public void run() {
+                    sink += new RunLengthEncoding(image).iterator().next()[0];
+                }
+            }));
+        }
+    }
+
+    /**
+     *  allocatedBytes() returns the number of bytes this thread has allocated
+     *  so far, or -1 if the JVM cannot tell.
+     *
+     *  @return the bytes allocated by this thread.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads =
+            ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     *  allocation() runs the task once and returns the number of bytes it
+     *  allocated, or -1 if the JVM cannot tell.
+     *
+     *  @param task the code to measure.
+     *  @return the bytes allocated by the task.
+     */
+    private static long allocation(Runnable task) {
+        long before = allocatedBytes();
+        task.run();
+        long after = allocatedBytes();
+        return before < 0 ? -1 : after - before;
+    }
+
+    /**
+     *  reportAllocation() prints one allocation line.
+     *
+     *  @param label what was measured.
+     *  @param bytes the number of bytes allocated.
+     */
+    private static void reportAllocation(String label, long bytes) {
+        System.out.println(String.format("  %-44s %10.2f MB", label,
+                                         bytes / 1e6));
+    }
+
+    /**
+     *  tiff() compares TIFFEncoder with TIFFWriter, in time and in bytes
+     *  allocated, writing a 1080p PixImage uncompressed and a 1080p
+     *  run-length encoding with PackBits, and checks that their files are
+     *  identical.  (TIFFEncoder takes seconds per 4K image.)
+     */
+    private static void tiff() {
+        final PixImage image =
+            randomImage(1920, 1080, PixImage.Storage.PACKED).boxBlur(1, 1);
+        PixImage runs = new PixImage(1920, 1080, PixImage.Storage.PACKED);
+        Random random = new Random(4);
+        for (int y = 0; y < runs.getHeight(); y++) {
+            for (int x = 0; x < runs.getWidth(); x++) {
+                int gray = random.nextInt(16) == 0 ? random.nextInt(256) : 0;
+                runs.setPixel(x, y, (short) gray, (short) gray,
+                              (short) (x % 64 == 0 ? 255 - gray : gray));
+            }
+        }
+        final RunLengthEncoding rle = new RunLengthEncoding(runs);
+
+        try {
+            final File oldFile = File.createTempFile("bench", ".tiff");
+            final File newFile = File.createTempFile("bench", ".tiff");
+            oldFile.deleteOnExit();
+            newFile.deleteOnExit();
+            final TIFFWriter writer = new TIFFWriter();
+
+            Runnable[] tasks = new Runnable[] {
+                new Runnable() {
+                    public void run() {
+                        TIFFEncoder.writeTIFF(image, oldFile.getPath());
+                    }
+                },
+                new Runnable() {
+                    public void run() {
+                        TIFFWriter.writeTIFF(image, newFile.getPath());
+                    }
+                },
+                new Runnable() {
+                    public void run() {
+                        TIFFEncoder.writeTIFF(rle, oldFile.getPath());
+                    }
+                },
+                new Runnable() {
+                    public void run() {
+                        try {
+                            writer.write(rle, newFile.getPath());
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            String[] labels = new String[] {
+                "TIFFEncoder, PixImage 1920x1080",
+                "TIFFWriter, PixImage 1920x1080",
+                "TIFFEncoder, RLE 1920x1080",
+                "TIFFWriter (reused), RLE 1920x1080"
+            };
+
+            for (int i = 0; i < tasks.length; i++) {
+                report(labels[i], time(tasks[i]));
+                reportAllocation(labels[i] + " allocation",
+                                 allocation(tasks[i]));
+                if (i % 2 == 1) {
+                    // TIFFEncoder does not truncate an existing file, so
+                    // write its output afresh before comparing.
+                    oldFile.delete();
+                    tasks[i - 1].run();
+                    boolean same =
+                        Arrays.equals(Files.readAllBytes(oldFile.toPath()),
+                                      Files.readAllBytes(newFile.toPath()));
+                    System.out.println("  files identical: " + same);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     *  strips() times TIFFWriter writing a 4K run-length encoding of a
+     *  photograph-like image as one strip, and in 64-row strips compressed
+     *  by 1, 2, and all available threads.
+     */
+    private static void strips() {
+        final RunLengthEncoding rle = new RunLengthEncoding(
+            randomImage(3840, 2160, PixImage.Storage.PACKED).sobelEdges(1));
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        try {
+            final File file = File.createTempFile("bench", ".tiff");
+            file.deleteOnExit();
+            int[][] configs = new int[][] { { 0, 1 }, { 64, 1 }, { 64, 2 },
+                                            { 64, processors } };
+            for (int i = 0; i < configs.length; i++) {
+                final TIFFWriter writer = new TIFFWriter();
+                writer.setRowsPerStrip(configs[i][0]);
+                writer.setParallelism(configs[i][1]);
+                report((configs[i][0] == 0 ? "one strip"
+                                           : configs[i][0] + "-row strips") +
+                       ", " + configs[i][1] + " thread(s)",
+                       time(new Runnable() {
+                           public void run() {
+                               try {
+                                   writer.write(rle, file.getPath());
+                               } catch (IOException e) {
+                                   throw new RuntimeException(e);
+                               }
+                           }
+                       }));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     *  planar() compares the file size and encoding time of TIFFWriter's
+     *  interleaved and planar PackBits output, on a 4K image of color runs 1
+     *  to 256 pixels long and on a 4K grayscale edge image.
+     */
+    private static void planar() {
+        final int width = 3840;
+        final int height = 2160;
+        PixImage color = new PixImage(width, height, PixImage.Storage.PACKED);
+        Random random = new Random(5);
+        byte[] row = new byte[3 * width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; ) {
+                int length = Math.min(1 + random.nextInt(256), width - x);
+                int rgb = random.nextInt(1 << 24);
+                for (int end = x + length; x < end; x++) {
+                    row[3 * x] = (byte) (rgb >> 16);
+                    row[3 * x + 1] = (byte) (rgb >> 8);
+                    row[3 * x + 2] = (byte) rgb;
+                }
+            }
+            color.copyRowFrom(y, row, 0);
+        }
+        RunLengthEncoding[] images = new RunLengthEncoding[] {
+            new RunLengthEncoding(color),
+            new RunLengthEncoding(randomImage(width, height,
+                                              PixImage.Storage.PACKED)
+                                  .boxBlur(2, 1).sobelEdges(1))
+        };
+        String[] names = new String[] { "color runs", "gray edges" };
+
+        try {
+            final File file = File.createTempFile("bench", ".tiff");
+            file.deleteOnExit();
+            for (int i = 0; i < images.length; i++) {
+                final RunLengthEncoding rle = images[i];
+                for (int planes = 0; planes < 2; planes++) {
+                    final TIFFWriter writer = new TIFFWriter();
+                    writer.setPlanar(planes == 1);
+                    String label = names[i] +
+                        (planes == 1 ? ", planar" : ", interleaved");
+                    report(label, time(new Runnable() {
+                        public void run() {
+                            try {
+                                writer.write(rle, file.getPath());
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }));
+                    System.out.println(String.format("  %-44s %10.2f MB",
+                                                     label + " file size",
+                                                     file.length() / 1e6));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     *  read() compares TIFFDecoder with JAI at reading a 4K TIFF file into a
+     *  PixImage:  the first call, which includes loading each library's
+     *  classes; the time until the first row of pixels is available; and
+     *  the time of a whole read once both are warm.  For the first-call
+     *  timings to mean anything, read must be the first benchmark run.
+     */
+    private static void read() {
+        final int width = 3840;
+        final int height = 2160;
+        final String filename;
+        try {
+            File file = File.createTempFile("bench", ".tiff");
+            file.deleteOnExit();
+            filename = file.getPath();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        TIFFWriter.writeTIFF(randomImage(width, height,
+                                         PixImage.Storage.PACKED), filename);
+
+        Runnable nativeRead = new Runnable() {
+            public void run() {
+                try {
+                    sink += TIFFDecoder.readPixImage(
+                        filename, PixImage.Storage.SHORT_ARRAYS).getRed(0, 0);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        Runnable jaiRead = new Runnable() {
+            public void run() {
+                sink += ImageUtils.readTIFFPixJAI(filename).getRed(0, 0);
+            }
+        };
+        Runnable nativeFirstRow = new Runnable() {
+            public void run() {
+                try {
+                    TIFFDecoder decoder = new TIFFDecoder(filename);
+                    byte[] row = new byte[3 * width];
+                    decoder.readRow(row, 0);
+                    decoder.close();
+                    sink += row[0];
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        nativeRead.run();
+        report("TIFFDecoder, first call", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        jaiRead.run();
+        report("JAI, first call", (System.nanoTime() - start) / 1e6);
+
+        report("TIFFDecoder, first row", time(nativeFirstRow));
+        report("TIFFDecoder, whole image", time(nativeRead));
+        // JAI decodes the whole image before any pixel is available.
+        report("JAI, first row = whole image", time(jaiRead));
+    }
+
+    /**
+     *  convert() compares the per-pixel conversions between BufferedImage and
+     *  PixImage that ImageUtils used to do with its bulk conversions, on 4K
+     *  images, in both directions.  BufferedImages are converted from both
+     *  an int raster (TYPE_INT_ARGB) and a byte raster (TYPE_3BYTE_BGR, laid
+     *  out like the images JAI reads).
+     */
+    private static void convert() {
+        final PixImage image = randomImage(3840, 2160,
+                                           PixImage.Storage.SHORT_ARRAYS);
+        final BufferedImage ints = ImageUtils.pixImage2buffer(image);
+        final BufferedImage bytes =
+            new BufferedImage(3840, 2160, BufferedImage.TYPE_3BYTE_BGR);
+        bytes.getGraphics().drawImage(ints, 0, 0, null);
+
+        report("PixImage to BufferedImage, per pixel", time(new Runnable() {
+            public void run() {
+                BufferedImage b = new BufferedImage(image.getWidth(),
+                                                    image.getHeight(),
+                                                    BufferedImage.TYPE_INT_ARGB);
+                for (int x = 0; x < b.getWidth(); x++) {
+                    for (int y = 0; y < b.getHeight(); y++) {
+                        b.setRGB(x, y, new Color(image.getRed(x, y),
+                                                 image.getGreen(x, y),
+                                                 image.getBlue(x, y)).getRGB());
+                    }
+                }
+                sink += b.getRGB(0, 0);
+            }
+        }));
+        report("PixImage to BufferedImage, bulk", time(new Runnable() {
+            public void run() {
+                sink += ImageUtils.pixImage2buffer(image).getRGB(0, 0);
+            }
+        }));
+
+        BufferedImage[] sources = new BufferedImage[] { ints, bytes };
+        String[] names = new String[] { "int", "byte" };
+        for (int i = 0; i < sources.length; i++) {
+            final BufferedImage b = sources[i];
+            report("BufferedImage (" + names[i] + ") to PixImage, per pixel",
+                   time(new Runnable() {
+                       public void run() {
+                           PixImage p = new PixImage(b.getWidth(),
+                                                     b.getHeight());
+                           for (int x = 0; x < b.getWidth(); x++) {
+                               for (int y = 0; y < b.getHeight(); y++) {
+                                   Color c = new Color(b.getRGB(x, y));
+                                   p.setPixel(x, y, (short) c.getRed(),
+                                              (short) c.getGreen(),
+                                              (short) c.getBlue());
+                               }
+                           }
+                           sink += p.getRed(0, 0);
+                       }
+                   }));
+            report("BufferedImage (" + names[i] + ") to PixImage, bulk",
+                   time(new Runnable() {
+                       public void run() {
+                           sink += ImageUtils.buffer2PixImage(b).getRed(0, 0);
+                       }
+                   }));
+        }
+    }
+
+    /**
+     *  runFilter() compares blurring and detecting the edges of a run-length
+     *  encoding through a PixImage (toPixImage(), filter, encode anew) with
+     *  doing it on the runs, on a 4K diagram-like image:  a white page with
+     *  sparse black lines and a few colored rectangles.
+     */
+    private static void runFilter() {
+        final int width = 3840;
+        final int height = 2160;
+        PixImage page = new PixImage(width, height, PixImage.Storage.PACKED);
+        byte[] row = new byte[3 * width];
+        Random random = new Random(7);
+        int[][] boxes = new int[40][];
+        for (int b = 0; b < boxes.length; b++) {
+            boxes[b] = new int[] { random.nextInt(width - 300),
+                                   random.nextInt(height - 300),
+                                   50 + random.nextInt(250),
+                                   50 + random.nextInt(250),
+                                   random.nextInt(1 << 24) };
+        }
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(row, (byte) 255);
+            if (y % 120 == 0) {
+                Arrays.fill(row, (byte) 0);
+            }
+            for (int x = 0; x < width; x += 160) {
+                row[3 * x] = row[3 * x + 1] = row[3 * x + 2] = 0;
+            }
+            for (int[] box : boxes) {
+                if (y >= box[1] && y < box[1] + box[3]) {
+                    for (int x = box[0]; x < box[0] + box[2]; x++) {
+                        row[3 * x] = (byte) (box[4] >> 16);
+                        row[3 * x + 1] = (byte) (box[4] >> 8);
+                        row[3 * x + 2] = (byte) box[4];
+                    }
+                }
+            }
+            page.copyRowFrom(y, row, 0);
+        }
+        final RunLengthEncoding rle = new RunLengthEncoding(page);
+        System.out.println(String.format("  %-44s %10d runs",
+                                         "diagram 3840x2160",
+                                         rle.getRuns().runCount()));
+
+        int[] iterations = new int[] { 1, 5 };
+        for (int i = 0; i < iterations.length; i++) {
+            final int n = iterations[i];
+            report("boxBlur(" + n + ") through PixImage", time(new Runnable() {
+                public void run() {
+                    RunLengthEncoding blurred =
+                        new RunLengthEncoding(rle.toPixImage().boxBlur(n, 1));
+                    sink += blurred.getRuns().runCount();
+                }
+            }));
+            report("boxBlur(" + n + ") on runs", time(new Runnable() {
+                public void run() {
+                    sink += rle.boxBlur(n).getRuns().runCount();
+                }
+            }));
+        }
+        report("sobelEdges through PixImage", time(new Runnable() {
+            public void run() {
+                RunLengthEncoding edges =
+                    new RunLengthEncoding(rle.toPixImage().sobelEdges(1));
+                sink += edges.getRuns().runCount();
+            }
+        }));
+        report("sobelEdges on runs", time(new Runnable() {
+            public void run() {
+                sink += rle.sobelEdges().getRuns().runCount();
+            }
+        }));
+    }
+
+    /**
+     *  approximate() compares boxBlur() with boxBlurApproximate() on a 1080p
+     *  photograph-like image (blurred noise) for 5, 20, and 50 iterations,
+     *  and prints the largest error of the approximation next to its bounds.
+     */
+    private static void approximate() {
+        final PixImage image =
+            randomImage(1920, 1080, PixImage.Storage.PACKED).boxBlur(2, 1);
+        int[] iterations = new int[] { 5, 20, 50 };
+        for (int i = 0; i < iterations.length; i++) {
+            final int n = iterations[i];
+            report("boxBlur(" + n + ") 1920x1080", time(new Runnable() {
+                public void run() {
+                    sink += image.boxBlur(n, 1).getRed(0, 0);
+                }
+            }));
+            report("boxBlurApproximate(" + n + ") 1920x1080",
+                   time(new Runnable() {
+                       public void run() {
+                           sink += image.boxBlurApproximate(n).getRed(0, 0);
+                       }
+                   }));
+
+            PixImage exact = image.boxBlur(n, 1);
+            PixImage approximate = image.boxBlurApproximate(n);
+            int error = 0;
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    error = Math.max(error, Math.abs(exact.getRed(x, y) -
+                                                     approximate.getRed(x, y)));
+                }
+            }
+            System.out.println(String.format(
+                "  %-44s %10d (bound %.1f, plus up to %d of boxBlur() " +
+                "rounding)", "largest red error, " + n + " iterations", error,
+                PixImage.boxBlurApproximateError(n), n));
+        }
+    }
+
+    /**
+     *  movingSquare() returns a copy of image with a 64x64 square of the
+     *  given color at (x, y).
+     */
+    private static PixImage movingSquare(PixImage image, int x, int y,
+                                         int rgb) {
+        PixImage frame = new PixImage(image.getWidth(), image.getHeight(),
+                                      image.getStorage());
+        byte[] row = new byte[3 * image.getWidth()];
+        for (int r = 0; r < image.getHeight(); r++) {
+            image.copyRowTo(r, row, 0);
+            if (r >= y && r < y + 64) {
+                for (int c = x; c < x + 64; c++) {
+                    row[3 * c] = (byte) (rgb >> 16);
+                    row[3 * c + 1] = (byte) (rgb >> 8);
+                    row[3 * c + 2] = (byte) rgb;
+                }
+            }
+            frame.copyRowFrom(r, row, 0);
+        }
+        return frame;
+    }
+
+    /**
+     *  incremental() compares sobelEdges() with the incremental
+     *  sobelEdges(previous, previousEdges) on 1080p frames in which a 64x64
+     *  square moves 8 pixels between frames:  as PixImages and as run-length
+     *  encodings, over a photograph-like background and over a flat one.
+     */
+    private static void incremental() {
+        PixImage photo =
+            randomImage(1920, 1080, PixImage.Storage.PACKED).boxBlur(2, 1);
+        final PixImage first = movingSquare(photo, 400, 300, 0xFF2000);
+        final PixImage second = movingSquare(photo, 408, 300, 0xFF2000);
+        final PixImage firstEdges = first.sobelEdges(1);
+
+        report("PixImage sobelEdges, 1920x1080", time(new Runnable() {
+            public void run() {
+                sink += second.sobelEdges(1).getRed(0, 0);
+            }
+        }));
+        report("PixImage incremental sobelEdges", time(new Runnable() {
+            public void run() {
+                sink += second.sobelEdges(first, firstEdges).getRed(0, 0);
+            }
+        }));
+
+        PixImage flat = new PixImage(1920, 1080, PixImage.Storage.PACKED);
+        PixImage[] backgrounds = new PixImage[] { photo, flat };
+        String[] names = new String[] { "photo", "flat" };
+        for (int i = 0; i < backgrounds.length; i++) {
+            final RunLengthEncoding firstRuns = new RunLengthEncoding(
+                movingSquare(backgrounds[i], 400, 300, 0xFF2000));
+            final RunLengthEncoding secondRuns = new RunLengthEncoding(
+                movingSquare(backgrounds[i], 408, 300, 0xFF2000));
+            final RunLengthEncoding firstRunEdges = firstRuns.sobelEdges();
+
+            report("RLE sobelEdges, " + names[i], time(new Runnable() {
+                public void run() {
+                    sink += secondRuns.sobelEdges().getRuns().runCount();
+                }
+            }));
+            report("RLE incremental sobelEdges, " + names[i],
+                   time(new Runnable() {
+                       public void run() {
+                           RunLengthEncoding edges =
+                               secondRuns.sobelEdges(firstRuns, firstRunEdges);
+                           sink += edges.getRuns().runCount();
+                       }
+                   }));
+        }
+    }
+
+    /**
+     *  A SuiteBenchmark is one operation timed by the suite.  prepare() is
+     *  called once per image, untimed, and returns the code to time.
+     */
+    private abstract static class SuiteBenchmark {
+        final String name;
+        final int callsPerRun;
+
+        SuiteBenchmark(String name, int callsPerRun) {
+            this.name = name;
+            this.callsPerRun = callsPerRun;
+        }
+
+        abstract Runnable prepare(PixImage image, File file);
+    }
+
+    /**
+     *  suiteImage() returns a suite image of the given size whose rows are
+     *  cut into runs of random colors no longer than maxRun.
+     *
+     *  @param width the width of the image.
+     *  @param height the height of the image.
+     *  @param maxRun the longest run.
+     *  @return a new PixImage.
+     */
+    static PixImage suiteImage(int width, int height, int maxRun) {
+        PixImage image = new PixImage(width, height, PixImage.Storage.PACKED);
+        Random random = new Random(width * 31 + height + maxRun);
+        byte[] row = new byte[3 * width];
+        int rgb = random.nextInt(1 << 24);
+        int longest = Math.min(maxRun, width);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; ) {
+                int length = Math.min(1 + random.nextInt(longest), width - x);
+                if (maxRun != Integer.MAX_VALUE) {
+                    rgb = random.nextInt(1 << 24);
+                }
+                for (int end = x + length; x < end; x++) {
+                    row[3 * x] = (byte) (rgb >> 16);
+                    row[3 * x + 1] = (byte) (rgb >> 8);
+                    row[3 * x + 2] = (byte) rgb;
+                }
+            }
+            image.copyRowFrom(y, row, 0);
+        }
+        return image;
+    }
+
+    /**
+     *  measure() runs the task for SUITE_WARMUP_MILLIS, then times it for
+     *  SUITE_MEASURE_MILLIS, and returns the time of each timed run in
+     *  milliseconds.
+     *
+     *  @param task the code to time.
+     *  @return the times of the timed runs.
+     */
+    private static double[] measure(Runnable task) {
+        long end = System.nanoTime() + SUITE_WARMUP_MILLIS * 1000000;
+        do {
+            task.run();
+        } while (System.nanoTime() < end);
+
+        double[] times = new double[16];
+        int count = 0;
+        end = System.nanoTime() + SUITE_MEASURE_MILLIS * 1000000;
+        do {
+            long start = System.nanoTime();
+            task.run();
+            if (count == times.length) {
+                times = Arrays.copyOf(times, 2 * count);
+            }
+            times[count++] = (System.nanoTime() - start) / 1e6;
+        } while (System.nanoTime() < end);
+        return Arrays.copyOf(times, count);
+    }
+
+    /**
+     *  suite() times boxBlur() with 1, 5, and 20 iterations, sobelEdges(),
+     *  the RunLengthEncoding(PixImage) constructor, RunLengthEncoding's
+     *  setPixel() and toPixImage(), and both TIFFEncoder.writeTIFF()
+     *  overloads, on every suite image size and run-length distribution.
+     *  The setPixel benchmark sets SET_PIXEL_CALLS / 2 random pixels to
+     *  random colors and then restores them, and is reported per call.
+     *
+     *  @param filter run only the benchmarks whose names contain this.
+     */
+    private static void suite(String filter) {
+        SuiteBenchmark[] benchmarks = new SuiteBenchmark[] {
+            new SuiteBenchmark("boxBlur1", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    return new Runnable() {
+                        public void run() {
+                            sink += image.boxBlur(1).getRed(0, 0);
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("boxBlur5", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    return new Runnable() {
+                        public void run() {
+                            sink += image.boxBlur(5).getRed(0, 0);
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("boxBlur20", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    return new Runnable() {
+                        public void run() {
+                            sink += image.boxBlur(20).getRed(0, 0);
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("sobelEdges", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    return new Runnable() {
+                        public void run() {
+                            sink += image.sobelEdges().getRed(0, 0);
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("rleEncode", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    return new Runnable() {
+                        public void run() {
+                            RunLengthEncoding rle =
+                                new RunLengthEncoding(image);
+                            sink += rle.getRuns().runCount();
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("rleSetPixel", SET_PIXEL_CALLS) {
+                Runnable prepare(final PixImage image, File file) {
+                    final RunLengthEncoding rle = new RunLengthEncoding(image);
+                    final int n = SET_PIXEL_CALLS / 2;
+                    final int[] xs = new int[n];
+                    final int[] ys = new int[n];
+                    final short[] values = new short[n];
+                    Random random = new Random(6);
+                    for (int i = 0; i < n; i++) {
+                        xs[i] = random.nextInt(image.getWidth());
+                        ys[i] = random.nextInt(image.getHeight());
+                        values[i] = (short) random.nextInt(256);
+                    }
+                    return new Runnable() {
+                        public void run() {
+                            for (int i = 0; i < n; i++) {
+                                rle.setPixel(xs[i], ys[i], values[i],
+                                             values[i], values[i]);
+                            }
+                            // Restore in reverse, so that pixels chosen twice
+                            // end up with their original colors.
+                            for (int i = n - 1; i >= 0; i--) {
+                                rle.setPixel(xs[i], ys[i],
+                                             image.getRed(xs[i], ys[i]),
+                                             image.getGreen(xs[i], ys[i]),
+                                             image.getBlue(xs[i], ys[i]));
+                            }
+                            sink += rle.getRuns().runCount();
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("rleToPixImage", 1) {
+                Runnable prepare(final PixImage image, File file) {
+                    final RunLengthEncoding rle = new RunLengthEncoding(image);
+                    return new Runnable() {
+                        public void run() {
+                            sink += rle.toPixImage().getRed(0, 0);
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("writeTIFFPixImage", 1) {
+                Runnable prepare(final PixImage image, final File file) {
+                    return new Runnable() {
+                        public void run() {
+                            TIFFEncoder.writeTIFF(image, file.getPath());
+                        }
+                    };
+                }
+            },
+            new SuiteBenchmark("writeTIFFRLE", 1) {
+                Runnable prepare(final PixImage image, final File file) {
+                    final RunLengthEncoding rle = new RunLengthEncoding(image);
+                    return new Runnable() {
+                        public void run() {
+                            TIFFEncoder.writeTIFF(rle, file.getPath());
+                        }
+                    };
+                }
+            }
+        };
+
+        File file;
+        try {
+            file = File.createTempFile("bench", ".tiff");
+            file.deleteOnExit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        System.out.println(String.format("  %-18s %9s %6s  %-4s %5s %12s " +
+                                         "%10s  %s", "Benchmark", "(size)",
+                                         "(runs)", "Mode", "Cnt", "Score",
+                                         "StdDev", "Units"));
+        for (SuiteBenchmark benchmark : benchmarks) {
+            if (!benchmark.name.contains(filter)) {
+                continue;
+            }
+            for (int[] size : SUITE_SIZES) {
+                for (int r = 0; r < SUITE_RUNS.length; r++) {
+                    PixImage image = suiteImage(size[0], size[1],
+                                                SUITE_MAX_RUN[r]);
+                    double[] times = measure(benchmark.prepare(image, file));
+                    double mean = 0;
+                    for (double t : times) {
+                        mean += t;
+                    }
+                    mean /= times.length;
+                    double variance = 0;
+                    for (double t : times) {
+                        variance += (t - mean) * (t - mean);
+                    }
+                    double deviation = times.length < 2 ? 0
+                        : Math.sqrt(variance / (times.length - 1));
+                    // Report microseconds per call.
+                    double scale = 1000.0 / benchmark.callsPerRun;
+                    System.out.println(String.format(
+                        "  %-18s %9s %6s  avgt %5d %12.3f %10.3f  us/op",
+                        benchmark.name, size[0] + "x" + size[1],
+                        SUITE_RUNS[r], times.length, mean * scale,
+                        deviation * scale));
+                }
+            }
+        }
+    }
+
+    /**
+     *  run() runs the benchmark with the given name.
+     *
+     *  @param name the name of the benchmark.
+     *  @return false if there is no benchmark with that name.
+     */
+    private static boolean run(String name) {
+        System.out.println(name + ":");
+        if (name.equals("storage")) {
+            storage();
+        } else if (name.equals("sobel")) {
+            sobel();
+        } else if (name.equals("rle")) {
+            rle();
+        } else if (name.equals("tiff")) {
+            tiff();
+        } else if (name.equals("strips")) {
+            strips();
+        } else if (name.equals("planar")) {
+            planar();
+        } else if (name.equals("read")) {
+            read();
+        } else if (name.equals("convert")) {
+            convert();
+        } else if (name.equals("runfilter")) {
+            runFilter();
+        } else if (name.equals("approximate")) {
+            approximate();
+        } else if (name.equals("incremental")) {
+            incremental();
+        } else if (name.equals("suite")) {
+            suite("");
+        } else if (name.startsWith("suite/")) {
+            suite(name.substring("suite/".length()));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *  main() runs the benchmarks named on the command line, or all of them.
+     *
+     *  @param args the names of the benchmarks to run.
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            args = NAMES;
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            if (!run(args[i])) {
+                System.err.println("Unknown benchmark " + args[i] +
+                                   ".  Benchmarks are: " +
+                                   Arrays.toString(NAMES));
+                System.exit(1);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+}
@@ -24,9 +24,27 @@
  *  then Blur will read engine.tiff, perform 5 iterations of blurring, and
  *  write the blurred image to blur_engine.tiff .
  *
+ *  The parameters may be preceded by "-threads n" to blur with n threads.
+ *  (The default is one thread per available processor.)
+ *
+ *  With "-batch", the first parameter is instead a directory (every TIFF
+ *  file in it is blurred) or "@" followed by a file listing one image per
+ *  line.  The images are read, blurred, and written by a BatchPipeline, one
+ *  image per thread, and nothing is displayed.  Each output is written next
+ *  to its input.  For example,
+ *
+ *         java Blur -threads 4 -batch photos 5
+ *
+ *  blurs every TIFF file in the photos directory 5 times.
+ *
  *  @author Joel Galenson and Jonathan Shewchuk
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 public class Blur {
   
   /**
@@ -35,19 +53,21 @@ public class Blur {
    *
    *  @param filename the name of the input TIFF image file.
    *  @param numIterations the number of iterations of blurring to perform.
+   *  @param parallelism the number of threads to blur with.
    */
-  private static void blurFile(String filename, int numIterations) {
+  private static void blurFile(String filename, int numIterations,
+                               int parallelism) {
     System.out.println("Reading image file " + filename);
     PixImage image = ImageUtils.readTIFFPix(filename);
 
     System.out.println("Blurring image file.");
-    PixImage blurred = image.boxBlur(numIterations);
+    PixImage blurred = image.boxBlur(numIterations, parallelism);
 
     String blurname = "blur_" + filename;
     System.out.println("Writing blurred image file " + blurname);
-    TIFFEncoder.writeTIFF(blurred, blurname);
+    TIFFWriter.writeTIFF(blurred, blurname);
     /*
-    TIFFEncoder.writeTIFF(new RunLengthEncoding(edges), "rle" + blurname);
+    TIFFWriter.writeTIFF(new RunLengthEncoding(edges), "rle" + blurname);
     */
 
     System.out.println("Displaying input image and blurred image.");
@@ -55,20 +75,67 @@ public class Blur {
     ImageUtils.displayTIFFs(new PixImage[] { image, blurred });
   }
 
+  /**
+   *  blurBatch() blurs many TIFF image files, writing each blurred image to
+   *  a new TIFF image file next to its input.  It prints the throughput of
+   *  the read, blur, and write stages when it is done.
+   *
+   *  @param files the input TIFF image files.
+   *  @param numIterations the number of iterations of blurring to perform.
+   *  @param parallelism the number of images to blur at once.
+   */
+  private static void blurBatch(List<File> files, final int numIterations,
+                                int parallelism) throws InterruptedException {
+    System.out.println("Blurring " + files.size() + " image files.");
+    BatchPipeline pipeline = new BatchPipeline(new BatchPipeline.Filter() {
+      public BatchPipeline.Output[] filter(PixImage image, File file) {
+        PixImage blurred = image.boxBlur(numIterations, 1);
+        return new BatchPipeline.Output[] {
+          new BatchPipeline.Output(BatchPipeline.prefixed(file, "blur_"),
+                                   blurred) };
+      }
+    }, parallelism);
+    pipeline.run(files);
+  }
+
   /**
    *  main() reads the command-line arguments and initiates the blurring.
    *
-   *  The first command-line argument is the name of the image file.
+   *  An optional "-threads n" pair of arguments sets the number of threads.
+   *  An optional "-batch" argument selects batch mode.
+   *  The next command-line argument is the name of the image file (or, in
+   *  batch mode, the directory or "@" list file).
    *  An optional second argument is number of iterations of blurring.
    *
    *  @param args the usual array of command-line argument Strings.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException,
+                                                InterruptedException {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (args.length >= 2 && args[0].equals("-threads")) {
+      try {
+        parallelism = Integer.parseInt(args[1]);
+      } catch (NumberFormatException ex) {
+        System.err.println("The number of threads must be a number.");
+        System.exit(1);
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    boolean batch = args.length >= 1 && args[0].equals("-batch");
+    if (batch) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     if (args.length == 0) {
-      System.out.println("usage:  java Blur imagefile [iterations]");
+      System.out.println("usage:  java Blur [-threads n] [-batch] imagefile " +
+                         "[iterations]");
+      System.out.println("  n is the number of threads (default: one per " +
+                         "processor).");
       System.out.println("  imagefile is an image in TIFF format.");
       System.out.println("  interations is the number of blurring iterations" +
                          " (default 1).");
+      System.out.println("  -batch makes imagefile a directory of TIFF " +
+                         "files, or @listfile.");
       System.out.println("The blurred image is written to blur_imagefile.");
       System.exit(0);
     }
@@ -83,6 +150,10 @@ public class Blur {
       }
     }
 
-    blurFile(args[0], numIterations);
+    if (batch) {
+      blurBatch(BatchPipeline.inputFiles(args[0]), numIterations, parallelism);
+    } else {
+      blurFile(args[0], numIterations, parallelism);
+    }
   }
 }
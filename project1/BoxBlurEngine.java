@@ -0,0 +1,191 @@
+/* BoxBlurEngine.java */
+
+/**
+ *  The BoxBlurEngine class performs repeated 3x3 box blurring for PixImage.
+ *
+ *  The 3x3 box is separable, so each iteration first sums every row
+ *  horizontally with a sliding window (one add and one subtract per pixel),
+ *  then adds three consecutive rows of horizontal sums together.  Only three
+ *  rows of horizontal sums are alive at any time.  The image is blurred back
+ *  and forth between two sets of row-major color planes, so no memory is
+ *  allocated once the engine has been constructed, however many iterations
+ *  are performed.  Iterations may also be split into bands of rows that are
+ *  blurred in parallel (see RowBands).
+ *
+ *  The output is bit-identical to repeated calls to PixImage.getBluredPixel():
+ *  the divisor of each pixel is taken from a precomputed table (9 inside the
+ *  image, 6 on an edge, 4 in a corner), and quotients are rounded toward zero.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+class BoxBlurEngine {
+
+    private final int width;
+    private final int height;
+
+    /**
+     *  innerDivisors[x] is the divisor of pixel x in a row that is not on the
+     *  top or bottom border; borderDivisors[x] is the divisor of pixel x in
+     *  the top or bottom row.
+     */
+    private final int[] innerDivisors;
+    private final int[] borderDivisors;
+
+    /**
+     *  front holds the current image and back receives the next iteration.
+     *  Each is indexed [channel][x + y * width], channel 0, 1, 2 being red,
+     *  green, and blue.
+     */
+    private short[][] front;
+    private short[][] back;
+
+    /**
+     *  BoxBlurEngine() constructs an engine for images of the given size.  The
+     *  engine may be reused for any number of images of that size, but it is
+     *  not safe to use one engine from several threads at once.
+     *
+     *  @param width the width of the images to blur.
+     *  @param height the height of the images to blur.
+     */
+    BoxBlurEngine(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        innerDivisors = new int[width];
+        borderDivisors = new int[width];
+        for (int x = 0 ; x < width ; x ++) {
+            int columnDivisor = (x == 0 || x == width - 1) ? 2 : 3;
+            innerDivisors[x] = columnDivisor * 3;
+            borderDivisors[x] = columnDivisor * 2;
+        }
+
+        front = new short[3][width * height];
+        back = new short[3][width * height];
+    }
+
+    /**
+     *  blur() returns a newly constructed PixImage holding numIterations
+     *  iterations of box blurring applied to image.  The input is not
+     *  changed.
+     *
+     *  If pool is not null, each iteration is split into bands of rows that
+     *  are blurred in parallel on the pool.  The result is the same either
+     *  way.
+     *
+     *  @param image the image to blur; it must have this engine's size.
+     *  @param numIterations the number of iterations; must be positive.
+     *  @param pool the pool to blur on, or null to blur on this thread.
+     *  @return the blurred image.
+     */
+    PixImage blur(PixImage image, int numIterations, ForkJoinPool pool) {
+        image.copyToPlanes(front[0], front[1], front[2]);
+
+        for (int i = 0 ; i < numIterations ; i ++) {
+            final short[][] src = front;
+            final short[][] dst = back;
+            RowBands.run(pool, height, new RowBands.Body() {
+                public void rows(int y0, int y1) {
+                    int[][] window = newWindow();
+                    for (int c = 0 ; c < 3 ; c ++) {
+                        blurRows(src[c], dst[c], y0, y1, window);
+                    }
+                }
+            });
+            swap();
+        }
+
+        PixImage result = new PixImage(width, height, image.getStorage());
+        result.copyFromPlanes(front[0], front[1], front[2]);
+        return result;
+    }
+
+    /**
+     *  swap() exchanges the front and back buffers at the end of an iteration.
+     */
+    private void swap() {
+        short[][] temp = front;
+        front = back;
+        back = temp;
+    }
+
+    /**
+     *  newWindow() allocates the three rows of horizontal sums needed by
+     *  blurRows().
+     *
+     *  @return a new, empty window.
+     */
+    int[][] newWindow() {
+        return new int[3][width];
+    }
+
+    /**
+     *  blurRows() blurs rows y0...y1 - 1 of one color plane.  Rows y0 - 1 and
+     *  y1 are read (when they exist) but not written, so disjoint row ranges
+     *  may be blurred independently.
+     *
+     *  @param src the plane to read, indexed x + y * width.
+     *  @param dst the plane to write, indexed x + y * width.
+     *  @param y0 the first row to write.
+     *  @param y1 one past the last row to write.
+     *  @param window three scratch rows of width ints.
+     */
+    void blurRows(short[] src, short[] dst, int y0, int y1, int[][] window) {
+        int[] above = window[0];
+        int[] middle = window[1];
+        int[] below = window[2];
+
+        rowSums(src, y0 - 1, above);
+        rowSums(src, y0, middle);
+
+        for (int y = y0 ; y < y1 ; y ++) {
+            rowSums(src, y + 1, below);
+
+            int[] divisors = (y == 0 || y == height - 1) ? borderDivisors
+                                                         : innerDivisors;
+            int base = y * width;
+            for (int x = 0 ; x < width ; x ++) {
+                dst[base + x] =
+                    (short) ((above[x] + middle[x] + below[x]) / divisors[x]);
+            }
+
+            int[] temp = above;
+            above = middle;
+            middle = below;
+            below = temp;
+        }
+    }
+
+    /**
+     *  rowSums() stores in sums[x] the sum of pixels x - 1, x, and x + 1 of
+     *  row y (omitting those outside the image).  If row y is outside the
+     *  image, every sum is zero.
+     *
+     *  @param src the plane to read, indexed x + y * width.
+     *  @param y the row to sum.
+     *  @param sums the output row of width ints.
+     */
+    private void rowSums(short[] src, int y, int[] sums) {
+        if (y < 0 || y >= height) {
+            Arrays.fill(sums, 0);
+            return;
+        }
+
+        int base = y * width;
+        if (width == 1) {
+            sums[0] = src[base];
+            return;
+        }
+
+        // sum holds pixels x - 1 and x on entry to each step.
+        int sum = src[base] + src[base + 1];
+        sums[0] = sum;
+        for (int x = 1 ; x < width - 1 ; x ++) {
+            sum += src[base + x + 1];
+            sums[x] = sum;
+            sum -= src[base + x - 1];
+        }
+        sums[width - 1] = sum;
+    }
+}
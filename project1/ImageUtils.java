@@ -16,10 +16,20 @@
  *  @author Joel Galenson
  **/
 
-import java.awt.Color;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import javax.media.jai.JAI;
 import javax.media.jai.RenderedImageAdapter;
@@ -38,37 +48,122 @@ import javax.swing.JLabel;
  */
 public class ImageUtils {
 
+  /**
+   *  The number of rows buffer2PixImage() converts between copies into the
+   *  PixImage.
+   */
+  private static final int BAND_HEIGHT = 64;
+
   /**
    *  buffer2PixImage() converts a BufferedImage to a PixImage.
+   *
+   *  Images whose pixels are 8-bit sRGB components or packed 0xRRGGBB ints
+   *  (which includes the RGB images JAI reads) are converted by reading the
+   *  raster's backing array directly, in row-major order.  Other images are
+   *  converted with getRGB(), one row at a time.  Either way, no object is
+   *  allocated per pixel, and the result is the same as calling getRGB() on
+   *  each pixel.
+   *
    *  @param bImage the image to convert.
    *  @return a PixImage with the same pixels as the BufferedImage.
    */
-  private static PixImage buffer2PixImage(BufferedImage bImage) {
-    PixImage pImage = new PixImage(bImage.getWidth(), bImage.getHeight());
-    for (int x = 0; x < bImage.getWidth(); x++) {
-      for (int y = 0; y < bImage.getHeight(); y++) {
-        Color color = new Color(bImage.getRGB(x, y));
-        pImage.setPixel(x, y, (short) color.getRed(), (short) color.getGreen(),
-                        (short) color.getBlue());
+  static PixImage buffer2PixImage(BufferedImage bImage) {
+    int width = bImage.getWidth();
+    int height = bImage.getHeight();
+    PixImage pImage = new PixImage(width, height);
+    WritableRaster raster = bImage.getRaster();
+    DataBuffer buffer = raster.getDataBuffer();
+    SampleModel model = raster.getSampleModel();
+    ColorModel colors = bImage.getColorModel();
+    boolean untranslated = raster.getSampleModelTranslateX() == 0 &&
+                           raster.getSampleModelTranslateY() == 0 &&
+                           buffer.getOffset() == 0 && buffer.getNumBanks() == 1;
+
+    // Packed ints:  only TYPE_INT_RGB and TYPE_INT_ARGB promise 0xRRGGBB.
+    int[] ints = null;
+    int intStride = 0;
+    if (untranslated && (bImage.getType() == BufferedImage.TYPE_INT_RGB ||
+                         bImage.getType() == BufferedImage.TYPE_INT_ARGB)) {
+      ints = ((DataBufferInt) buffer).getData();
+      intStride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+    }
+
+    // Interleaved bytes:  one 8-bit sample per sRGB component, alpha (if
+    // any) not premultiplied, so getRGB() would return them unchanged.
+    byte[] bytes = null;
+    int pixelStride = 0;
+    int byteStride = 0;
+    int[] offsets = null;
+    if (untranslated && buffer instanceof DataBufferByte &&
+        model instanceof ComponentSampleModel &&
+        colors instanceof ComponentColorModel &&
+        colors.getColorSpace().isCS_sRGB() &&
+        !colors.isAlphaPremultiplied() &&
+        (model.getNumBands() == 3 || model.getNumBands() == 4)) {
+      ComponentSampleModel components = (ComponentSampleModel) model;
+      bytes = ((DataBufferByte) buffer).getData();
+      pixelStride = components.getPixelStride();
+      byteStride = components.getScanlineStride();
+      offsets = components.getBandOffsets();
+    }
+
+    int band = Math.min(height, BAND_HEIGHT);
+    byte[] rows = new byte[3 * width * band];
+    int[] row = new int[width];
+    for (int y0 = 0; y0 < height; y0 += band) {
+      int count = Math.min(band, height - y0);
+      for (int r = 0, i = 0; r < count; r++) {
+        int y = y0 + r;
+        if (bytes != null) {
+          for (int x = 0, j = y * byteStride; x < width;
+               x++, j += pixelStride) {
+            rows[i++] = bytes[j + offsets[0]];
+            rows[i++] = bytes[j + offsets[1]];
+            rows[i++] = bytes[j + offsets[2]];
+          }
+        } else {
+          int[] source = ints;
+          int start = y * intStride;
+          if (source == null) {
+            bImage.getRGB(0, y, width, 1, row, 0, width);
+            source = row;
+            start = 0;
+          }
+          for (int x = 0; x < width; x++) {
+            int rgb = source[start + x];
+            rows[i++] = (byte) (rgb >> 16);
+            rows[i++] = (byte) (rgb >> 8);
+            rows[i++] = (byte) rgb;
+          }
+        }
       }
+      pImage.copyRowsFrom(y0, count, rows);
     }
     return pImage;
   }
 
   /**
-   *  pixImage2buffer() converts a PixImage to a BufferedImage.
+   *  pixImage2buffer() converts a PixImage to a BufferedImage.  The pixels
+   *  are written straight into the image's int array, one row at a time.
    *  @param pImage the image to convert.
    *  @return a BufferedImage with the same pixels as the PixImage.
    */
   static BufferedImage pixImage2buffer(PixImage pImage) {
-    BufferedImage bImage = new BufferedImage(pImage.getWidth(),
-                                             pImage.getHeight(),
+    int width = pImage.getWidth();
+    int height = pImage.getHeight();
+    BufferedImage bImage = new BufferedImage(width, height,
                                              BufferedImage.TYPE_INT_ARGB);
-    for (int x = 0; x < bImage.getWidth(); x++) {
-      for (int y = 0; y < bImage.getHeight(); y++) {
-        bImage.setRGB(x, y, new Color(pImage.getRed(x, y),
-                                      pImage.getGreen(x, y),
-                                      pImage.getBlue(x, y)).getRGB());
+    int[] pixels = ((DataBufferInt) bImage.getRaster().getDataBuffer())
+                   .getData();
+
+    int band = Math.min(height, BAND_HEIGHT);
+    byte[] rows = new byte[3 * width * band];
+    for (int y0 = 0, i = 0; y0 < height; y0 += band) {
+      int count = Math.min(band, height - y0);
+      pImage.copyRowsTo(y0, count, rows);
+      for (int j = 0; j < 3 * width * count; j += 3) {
+        pixels[i++] = 0xFF000000 | ((rows[j] & 0xFF) << 16) |
+                      ((rows[j + 1] & 0xFF) << 8) | (rows[j + 2] & 0xFF);
       }
     }
     return bImage;
@@ -86,21 +181,52 @@ public class ImageUtils {
 
   /**
    *  readTIFFPix() reads an image from a file and formats it as a PixImage.
+   *  Files that TIFFDecoder can read are decoded directly into the PixImage;
+   *  files in formats it does not support, or of 2 GB or more, are read with
+   *  JAI, which is only loaded if it is needed.
    *  @param filename the name of the file to read.
    *  @return a PixImage of the file
+   *  @throws UncheckedIOException if the file cannot be read (for example,
+   *  if it is missing or truncated).
    */
   public static PixImage readTIFFPix(String filename) {
+    try {
+      return TIFFDecoder.readPixImage(filename, PixImage.Storage.SHORT_ARRAYS);
+    } catch (TIFFDecoder.UnsupportedFormatException e) {
+      return readTIFFPixJAI(filename);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   *  readTIFFPixJAI() reads an image from a file with JAI and formats it as a
+   *  PixImage.
+   *  @param filename the name of the file to read.
+   *  @return a PixImage of the file
+   */
+  static PixImage readTIFFPixJAI(String filename) {
     return buffer2PixImage(readTIFF(filename));
   }
 
   /**
    *  readTIFFRLE() reads an image from a file and formats it as a run-length
-   *  encoding.
+   *  encoding.  Files that TIFFDecoder can read are encoded one row at a
+   *  time, without building a PixImage; files in formats it does not
+   *  support, or of 2 GB or more, are read with JAI.
    *  @param filename the name of the file to read.
    *  @return a RunLengthEncoding of the file.
+   *  @throws UncheckedIOException if the file cannot be read (for example,
+   *  if it is missing or truncated).
    */
   public static RunLengthEncoding readTIFFRLE(String filename) {
-    return new RunLengthEncoding(readTIFFPix(filename));
+    try {
+      return TIFFDecoder.readRLE(filename);
+    } catch (TIFFDecoder.UnsupportedFormatException e) {
+      return new RunLengthEncoding(readTIFFPixJAI(filename));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   /**
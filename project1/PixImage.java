@@ -15,6 +15,9 @@
  *  See the README file accompanying this project for additional details.
  */
 
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 public class PixImage {
 
     /**
@@ -31,10 +34,32 @@ public class PixImage {
     };
     private int width;
     private int height;
+    private Storage storage;
+
+    /**
+     *  With SHORT_ARRAYS storage, each color has its own array indexed
+     *  [x][y], and packedPixels is null.
+     */
     private short[][] redPixels;
     private short[][] greenPixels;
     private short[][] bluePixels;
 
+    /**
+     *  With PACKED storage, pixel (x, y) occupies the three bytes starting at
+     *  index 3 * (x + y * width), in the order red, green, blue, and the
+     *  short arrays are null.
+     */
+    private byte[] packedPixels;
+
+    /**
+     * The Storage enum selects how a PixImage keeps its pixels in memory.
+     *
+     * SHORT_ARRAYS keeps a separate short[width][height] array per color.
+     * PACKED keeps one byte per color in a single row-major byte array, which
+     * takes half the memory and lets a row be read with one array copy.
+     */
+    public static enum Storage { SHORT_ARRAYS, PACKED }
+
 
 
     /**
@@ -45,11 +70,29 @@ public class PixImage {
      * @param height the height of the image.
      */
     public PixImage(int width, int height) {
+        this(width, height, Storage.SHORT_ARRAYS);
+    }
+
+    /**
+     * PixImage() (with three parameters) constructs an empty PixImage with
+     * a specified width, height, and storage layout.  Every pixel has red,
+     * green, and blue intensities of zero (solid black).
+     *
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param storage how the pixels are kept in memory.
+     */
+    public PixImage(int width, int height, Storage storage) {
         this.width = width;
         this.height = height;
-        redPixels = new short[width][height];
-        greenPixels = new short[width][height];
-        bluePixels = new short[width][height];
+        this.storage = storage;
+        if (storage == Storage.PACKED) {
+            packedPixels = new byte[3 * width * height];
+        } else {
+            redPixels = new short[width][height];
+            greenPixels = new short[width][height];
+            bluePixels = new short[width][height];
+        }
     }
 
     /**
@@ -70,6 +113,15 @@ public class PixImage {
         return height;
     }
 
+    /**
+     * getStorage() returns the storage layout of the image.
+     *
+     * @return the storage layout chosen when the image was constructed.
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
     /**
      * getRed() returns the red intensity of the pixel at coordinate (x, y).
      *
@@ -78,6 +130,9 @@ public class PixImage {
      * @return the red intensity of the pixel at coordinate (x, y).
      */
     public short getRed(int x, int y) {
+        if (packedPixels != null) {
+            return (short) (packedPixels[3 * (x + y * width)] & 0xFF);
+        }
         return redPixels[x][y];
     }
 
@@ -89,6 +144,9 @@ public class PixImage {
      * @return the green intensity of the pixel at coordinate (x, y).
      */
     public short getGreen(int x, int y) {
+        if (packedPixels != null) {
+            return (short) (packedPixels[3 * (x + y * width) + 1] & 0xFF);
+        }
         return greenPixels[x][y];
     }
 
@@ -100,6 +158,9 @@ public class PixImage {
      * @return the blue intensity of the pixel at coordinate (x, y).
      */
     public short getBlue(int x, int y) {
+        if (packedPixels != null) {
+            return (short) (packedPixels[3 * (x + y * width) + 2] & 0xFF);
+        }
         return bluePixels[x][y];
     }
 
@@ -117,11 +178,181 @@ public class PixImage {
      * @param blue the new blue intensity for the pixel at coordinate (x, y).
      */
     public void setPixel(int x, int y, short red, short green, short blue) {
+        if (((red | green | blue) & ~0xFF) != 0) {
+            return;
+        }
+
+        if (packedPixels != null) {
+            int i = 3 * (x + y * width);
+            packedPixels[i] = (byte) red;
+            packedPixels[i + 1] = (byte) green;
+            packedPixels[i + 2] = (byte) blue;
+            return;
+        }
         redPixels[x][y] = red;
         greenPixels[x][y] = green;
         bluePixels[x][y] = blue;
     }
 
+    /**
+     * copyToPlanes() copies the pixels of this PixImage into three row-major
+     * arrays, so that pixel (x, y) lands at index x + y * width.
+     *
+     * @param red receives the red intensities.
+     * @param green receives the green intensities.
+     * @param blue receives the blue intensities.
+     */
+    void copyToPlanes(short[] red, short[] green, short[] blue) {
+        if (packedPixels != null) {
+            for (int i = 0, j = 0 ; i < width * height ; i ++, j += 3) {
+                red[i] = (short) (packedPixels[j] & 0xFF);
+                green[i] = (short) (packedPixels[j + 1] & 0xFF);
+                blue[i] = (short) (packedPixels[j + 2] & 0xFF);
+            }
+            return;
+        }
+
+        for (int x = 0 ; x < width ; x ++) {
+            for (int y = 0 ; y < height ; y ++) {
+                int i = x + y * width;
+                red[i] = redPixels[x][y];
+                green[i] = greenPixels[x][y];
+                blue[i] = bluePixels[x][y];
+            }
+        }
+    }
+
+    /**
+     * copyFromPlanes() overwrites every pixel of this PixImage with the
+     * intensities in three row-major arrays, as written by copyToPlanes().
+     *
+     * @param red the red intensities.
+     * @param green the green intensities.
+     * @param blue the blue intensities.
+     */
+    void copyFromPlanes(short[] red, short[] green, short[] blue) {
+        if (packedPixels != null) {
+            for (int i = 0, j = 0 ; i < width * height ; i ++, j += 3) {
+                packedPixels[j] = (byte) red[i];
+                packedPixels[j + 1] = (byte) green[i];
+                packedPixels[j + 2] = (byte) blue[i];
+            }
+            return;
+        }
+
+        for (int x = 0 ; x < width ; x ++) {
+            for (int y = 0 ; y < height ; y ++) {
+                int i = x + y * width;
+                redPixels[x][y] = red[i];
+                greenPixels[x][y] = green[i];
+                bluePixels[x][y] = blue[i];
+            }
+        }
+    }
+
+    /**
+     * copyRowTo() copies row y of this PixImage into rgb, starting at index
+     * offset, as width consecutive red, green, blue byte triples.  This is the
+     * layout of an uncompressed RGB row in a TIFF file.
+     *
+     * @param y the row to copy.
+     * @param rgb receives 3 * width bytes.
+     * @param offset the index in rgb of the red byte of pixel (0, y).
+     */
+    void copyRowTo(int y, byte[] rgb, int offset) {
+        if (packedPixels != null) {
+            System.arraycopy(packedPixels, 3 * y * width, rgb, offset, 3 * width);
+            return;
+        }
+
+        for (int x = 0 ; x < width ; x ++) {
+            rgb[offset ++] = (byte) redPixels[x][y];
+            rgb[offset ++] = (byte) greenPixels[x][y];
+            rgb[offset ++] = (byte) bluePixels[x][y];
+        }
+    }
+
+    /**
+     * copyRowsTo() copies rows y0...y0 + count - 1 of this PixImage into rgb,
+     * one after another, in the layout of copyRowTo().  With SHORT_ARRAYS
+     * storage, which keeps each column together, copying a band of rows
+     * reads the arrays far more sequentially than copying one row at a time.
+     *
+     * @param y0 the first row to copy.
+     * @param count the number of rows to copy.
+     * @param rgb receives 3 * width * count bytes, starting at index 0.
+     */
+    void copyRowsTo(int y0, int count, byte[] rgb) {
+        if (packedPixels != null) {
+            System.arraycopy(packedPixels, 3 * y0 * width, rgb, 0,
+                             3 * width * count);
+            return;
+        }
+
+        int stride = 3 * width;
+        for (int x = 0 ; x < width ; x ++) {
+            short[] red = redPixels[x];
+            short[] green = greenPixels[x];
+            short[] blue = bluePixels[x];
+            for (int y = 0, i = 3 * x ; y < count ; y ++, i += stride) {
+                rgb[i] = (byte) red[y0 + y];
+                rgb[i + 1] = (byte) green[y0 + y];
+                rgb[i + 2] = (byte) blue[y0 + y];
+            }
+        }
+    }
+
+    /**
+     * copyRowFrom() overwrites row y of this PixImage with width red, green,
+     * blue byte triples read from rgb, starting at index offset.
+     *
+     * @param y the row to overwrite.
+     * @param rgb holds 3 * width bytes.
+     * @param offset the index in rgb of the red byte of pixel (0, y).
+     */
+    void copyRowFrom(int y, byte[] rgb, int offset) {
+        if (packedPixels != null) {
+            System.arraycopy(rgb, offset, packedPixels, 3 * y * width, 3 * width);
+            return;
+        }
+
+        for (int x = 0 ; x < width ; x ++) {
+            redPixels[x][y] = (short) (rgb[offset ++] & 0xFF);
+            greenPixels[x][y] = (short) (rgb[offset ++] & 0xFF);
+            bluePixels[x][y] = (short) (rgb[offset ++] & 0xFF);
+        }
+    }
+
+    /**
+     * copyRowsFrom() overwrites rows y0...y0 + count - 1 of this PixImage with
+     * count rows read one after another from rgb, in the layout of
+     * copyRowFrom().  Like copyRowsTo(), it is faster than copying one row at
+     * a time with SHORT_ARRAYS storage.
+     *
+     * @param y0 the first row to overwrite.
+     * @param count the number of rows to overwrite.
+     * @param rgb holds 3 * width * count bytes, starting at index 0.
+     */
+    void copyRowsFrom(int y0, int count, byte[] rgb) {
+        if (packedPixels != null) {
+            System.arraycopy(rgb, 0, packedPixels, 3 * y0 * width,
+                             3 * width * count);
+            return;
+        }
+
+        int stride = 3 * width;
+        for (int x = 0 ; x < width ; x ++) {
+            short[] red = redPixels[x];
+            short[] green = greenPixels[x];
+            short[] blue = bluePixels[x];
+            for (int y = 0, i = 3 * x ; y < count ; y ++, i += stride) {
+                red[y0 + y] = (short) (rgb[i] & 0xFF);
+                green[y0 + y] = (short) (rgb[i + 1] & 0xFF);
+                blue[y0 + y] = (short) (rgb[i + 2] & 0xFF);
+            }
+        }
+    }
+
     /**
      * toString() returns a String representation of this PixImage.
      *
@@ -136,7 +367,7 @@ public class PixImage {
         for (int j = 0 ; j < height ; j ++) {
             sb.append("\n");
             for (int i = 0 ; i < width ; i ++) {
-                sb.append(String.format(" (%d, %d, %d) ", redPixels[i][j], greenPixels[i][j], bluePixels[i][j]));
+                sb.append(String.format(" (%d, %d, %d) ", getRed(i, j), getGreen(i, j), getBlue(i, j)));
             }
         }
         sb.append("\n");
@@ -173,22 +404,100 @@ public class PixImage {
      * @return a blurred version of "this" PixImage.
      */
     public PixImage boxBlur(int numIterations) {
-        PixImage afterBlur = this;
-
-        for (int i = 0 ; i < numIterations ; i ++) {
-            PixImage beforeBlur = afterBlur;
-            afterBlur = new PixImage(width, height);
-            for (int x = 0 ; x < width ;  x ++) {
-                for (int y = 0 ; y < height ; y ++) {
-                    short[] rgbValues = beforeBlur.getBluredPixel(x, y);
-                    afterBlur.setPixel(x, y, rgbValues[0], rgbValues[1], rgbValues[2]);
-                }
+        return boxBlur(numIterations, 1);
+    }
+
+    /**
+     * boxBlur() (with two parameters) returns the same image as boxBlur(),
+     * but splits the image into bands of rows that are blurred in parallel by
+     * the specified number of threads.
+     *
+     * @param numIterations the number of iterations of box blurring.
+     * @param parallelism the number of threads to use.  1 or less means
+     * blur on the calling thread.
+     * @return a blurred version of "this" PixImage.
+     */
+    public PixImage boxBlur(int numIterations, int parallelism) {
+        if (numIterations <= 0) {
+            return this;
+        }
+
+        ForkJoinPool pool = RowBands.newPool(parallelism);
+        try {
+            return new BoxBlurEngine(width, height).blur(this, numIterations,
+                                                         pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
+    }
 
-        return afterBlur;
+    /**
+     * boxBlurApproximate() returns an approximation of boxBlur(numIterations)
+     * computed in a fixed number of passes (at most six), however many
+     * iterations are asked for, so it is much faster for many iterations.
+     * For six iterations or fewer it returns boxBlur(numIterations), which
+     * is then just as fast.  Otherwise it is not bit-identical:  boxBlur()
+     * rounds down after every iteration, and boxBlurApproximate() replaces
+     * the repeated 3x3 box by a few wider boxes and rounds once.  A constant
+     * image stays constant.  For images at least 2x2, and pixels at least
+     * boxBlurApproximateReach(numIterations) from every border, no intensity
+     * is more than boxBlurApproximateError(numIterations) below boxBlur()'s,
+     * or more than that plus boxBlur()'s own rounding loss above it.  The
+     * rounding loss is less than numIterations levels; it is zero on flat
+     * regions and largest on noise.  (See ApproximateBlurEngine for the
+     * derivation.)
+     *
+     * @param numIterations the number of iterations of box blurring.
+     * @return an approximately blurred version of "this" PixImage.
+     */
+    public PixImage boxBlurApproximate(int numIterations) {
+        if (numIterations <= ApproximateBlurEngine.MAX_PASSES) {
+            return boxBlur(numIterations);
+        }
+        return new ApproximateBlurEngine(width, height, numIterations)
+            .blur(this);
     }
 
+    /**
+     * boxBlurApproximateError() returns the largest difference, in intensity
+     * levels, between boxBlurApproximate() and the given number of
+     * iterations of box blurring computed without rounding, away from the
+     * borders.  It does not depend on the image, and is zero for six
+     * iterations or fewer and at most about 10 for any number of iterations.
+     * See boxBlurApproximate() for how it bounds the difference from
+     * boxBlur().
+     *
+     * @param numIterations the number of iterations of box blurring.
+     * @return the error bound.
+     */
+    public static double boxBlurApproximateError(int numIterations) {
+        return new ApproximateBlurEngine(1, 1, numIterations).errorBound();
+    }
+
+    /**
+     * boxBlurApproximateReach() returns how far from the borders a pixel must
+     * be for boxBlurApproximateError() to bound its error.  It is zero for
+     * six iterations or fewer.
+     *
+     * @param numIterations the number of iterations of box blurring.
+     * @return the distance from the borders, in pixels.
+     */
+    public static int boxBlurApproximateReach(int numIterations) {
+        return new ApproximateBlurEngine(1, 1, numIterations).reach();
+    }
+
+    /**
+     * getBluredPixel() returns the red, green, and blue intensities (in
+     * indices 0, 1, 2) of pixel (x, y) after one iteration of box blurring.
+     * boxBlur() produces exactly the same values, but without examining the
+     * pixels one neighborhood at a time.
+     *
+     * @param x the x-coordinate of the pixel.
+     * @param y the y-coordinate of the pixel.
+     * @return the blurred intensities of the pixel at coordinate (x, y).
+     */
     public short[] getBluredPixel(int x, int y) {
         // Represent the R, G, B value in index 0, 1, 2.
         short[] result = new short[3];
@@ -200,9 +509,9 @@ public class PixImage {
         for (int i = -1 ; i < 2 ; i ++) {
             for (int j = -1 ; j < 2 ; j ++) {
                 if (isValidPosition(x + i, y + j)) {
-                    result[0] += redPixels[x + i][y + j];
-                    result[1] += greenPixels[x + i][y + j];
-                    result[2] += bluePixels[x + i][y + j];
+                    result[0] += getRed(x + i, y + j);
+                    result[1] += getGreen(x + i, y + j);
+                    result[2] += getBlue(x + i, y + j);
                 }
             }
         }
@@ -253,7 +562,7 @@ public class PixImage {
      * intensity we want to compute.
      * @return the intensity of the output pixel.
      */
-    private static short mag2gray(long mag) {
+    static short mag2gray(long mag) {
         short intensity = (short) (30.0 * Math.log(1.0 + (double) mag) - 256.0);
 
         // Make sure the returned intensity is in the range 0...255, regardless of
@@ -266,6 +575,83 @@ public class PixImage {
         return intensity;
     }
 
+    /**
+     * grayThresholds[g] is the smallest energy that mag2gray() maps to an
+     * intensity of g or more, for g in 1...255.  Because mag2gray() never
+     * decreases as the energy grows, these 255 breakpoints describe it
+     * completely.  (grayThresholds[0] is unused, and grayThresholds[256] is
+     * larger than any energy.)
+     */
+    private static final long[] grayThresholds = new long[257];
+
+    /**
+     * Energies below GRAY_BUCKET_LIMIT, which covers every energy the Sobel
+     * operator can produce, are looked up in grayBuckets.  Bucket i holds the
+     * intensity of energy i << GRAY_BUCKET_SHIFT.  Consecutive breakpoints
+     * are at least 170 apart, so each bucket of 128 energies contains at most
+     * one breakpoint.
+     */
+    private static final int GRAY_BUCKET_SHIFT = 7;
+    private static final long GRAY_BUCKET_LIMIT = 6 * 1020 * 1020 + 1;
+    private static final byte[] grayBuckets =
+        new byte[(int) (GRAY_BUCKET_LIMIT >>> GRAY_BUCKET_SHIFT) + 1];
+
+    static {
+        for (int g = 1; g < 256; g++) {
+            // Binary search for the first energy that reaches intensity g.
+            // mag2gray(2^40) is already 255.
+            long lo = grayThresholds[g - 1];
+            long hi = 1L << 40;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (mag2gray(mid) >= g) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            grayThresholds[g] = lo;
+        }
+        grayThresholds[256] = Long.MAX_VALUE;
+
+        for (int i = 0; i < grayBuckets.length; i++) {
+            grayBuckets[i] = (byte) mag2gray((long) i << GRAY_BUCKET_SHIFT);
+        }
+    }
+
+    /**
+     * mag2grayTable() returns exactly the same intensity as mag2gray(), for
+     * every energy, without computing a logarithm.  Energies that the Sobel
+     * operator can produce take one bucket lookup and one comparison with
+     * the next breakpoint; larger ones take an eight-step binary search of
+     * the breakpoints.
+     *
+     * @param mag the energy (squared vector magnitude) of the pixel whose
+     * intensity we want to compute.
+     * @return the intensity of the output pixel.
+     */
+    static short mag2grayTable(long mag) {
+        if (mag < 0) {
+            return mag2gray(mag);
+        }
+
+        if (mag < GRAY_BUCKET_LIMIT) {
+            int g = grayBuckets[(int) (mag >>> GRAY_BUCKET_SHIFT)] & 0xFF;
+            if (mag >= grayThresholds[g + 1]) {
+                g++;
+            }
+            return (short) g;
+        }
+
+        int g = 0;
+        for (int step = 128; step > 0; step >>= 1) {
+            if (grayThresholds[g + step] <= mag) {
+                g += step;
+            }
+        }
+        return (short) g;
+    }
+
     /**
      * sobelEdges() applies the Sobel operator, identifying edges in "this"
      * image.  The Sobel operator computes a magnitude that represents how
@@ -282,21 +668,62 @@ public class PixImage {
      * Whiter pixels represent stronger edges.
      */
     public PixImage sobelEdges() {
-        PixImage result = new PixImage(width, height);
+        return sobelEdges(1);
+    }
 
-        for (int x = 0 ; x < width ;  x ++) {
-            for (int y = 0 ; y < height ; y ++) {
-                int energy = getEnergy(x, y);
-                short grey = mag2gray(energy);
-                result.setPixel(x, y, grey, grey, grey);
+    /**
+     * sobelEdges() (with one parameter) returns the same image as
+     * sobelEdges(), but splits the image into bands of rows that are
+     * processed in parallel by the specified number of threads.
+     *
+     * @param parallelism the number of threads to use.  1 or less means
+     * run on the calling thread.
+     * @return a grayscale PixImage representing the edges of the input image.
+     */
+    public PixImage sobelEdges(int parallelism) {
+        ForkJoinPool pool = RowBands.newPool(parallelism);
+        try {
+            return new SobelEngine(this).edges(pool);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
+    }
 
-        return result;
-        // Don't forget to use the method mag2gray() above to convert energies to
-        // pixel intensities.
+    /**
+     * sobelEdges() (with two parameters) returns the same image as
+     * sobelEdges(), given an earlier frame of an image sequence and that
+     * frame's edge image.  Only the pixels within one pixel of a pixel that
+     * differs between the frames are recomputed; the rest are copied from
+     * previousEdges.  The frames are compared, and previousEdges copied, one
+     * row at a time with bulk copies, so when little changes between frames
+     * this is much faster than sobelEdges().
+     *
+     * @param previous the earlier frame, the same size as "this" PixImage.
+     * @param previousEdges previous.sobelEdges().
+     * @return a grayscale PixImage representing the edges of the input image.
+     * @throws IllegalArgumentException if the images differ in size.
+     */
+    public PixImage sobelEdges(PixImage previous, PixImage previousEdges) {
+        if (previous.width != width || previous.height != height ||
+            previousEdges.width != width || previousEdges.height != height) {
+            throw new IllegalArgumentException("Frames differ in size.");
+        }
+        return new SobelEngine(this).update(previous, previousEdges);
     }
 
+    /**
+     * getEnergy() returns the sum of the squared Sobel gradients of the three
+     * colors at pixel (x, y), treating pixels just outside the image as
+     * reflections of the pixels just inside.  This is the definition that
+     * SobelEngine computes for a whole image without examining the pixels one
+     * neighborhood at a time.
+     *
+     * @param x the x-coordinate of the pixel.
+     * @param y the y-coordinate of the pixel.
+     * @return the energy of the pixel at coordinate (x, y).
+     */
     private int getEnergy(int x, int y) {
         int energy = 0;
         short[][] neighborsIndesnsitiesRed = new short[3][3];
@@ -305,15 +732,12 @@ public class PixImage {
         
         for (int i = -1 ; i < 2 ; i ++){
             for (int j = -1 ; j < 2 ; j ++){
-                if (isValidPosition(x + i, y + j)){
-                    neighborsIndesnsitiesRed[i + 1][j + 1] = redPixels[x + i][y + j];
-                    neighborsIndesnsitiesGreen[i + 1][j + 1] = greenPixels[x + i][y + j];
-                    neighborsIndesnsitiesBlue[i + 1][j + 1] = bluePixels[x + i][y + j];
-                } else {
-                    neighborsIndesnsitiesRed[i + 1][j + 1] = getReflected(x + i, y + j, redPixels);
-                    neighborsIndesnsitiesGreen[i + 1][j + 1] = getReflected(x + i, y + j, greenPixels);
-                    neighborsIndesnsitiesBlue[i + 1][j + 1] = getReflected(x + i, y + j, bluePixels);
-                }
+                // Neighbors outside the image are reflected back inside.
+                int nx = reflectX(x + i);
+                int ny = reflectY(y + j);
+                neighborsIndesnsitiesRed[i + 1][j + 1] = getRed(nx, ny);
+                neighborsIndesnsitiesGreen[i + 1][j + 1] = getGreen(nx, ny);
+                neighborsIndesnsitiesBlue[i + 1][j + 1] = getBlue(nx, ny);
             }
         }
 
@@ -329,12 +753,6 @@ public class PixImage {
         return energy;
     }
 
-    private short getReflected(int x, int y, short[][] pixels){
-        x = reflectX(x);
-        y = reflectY(y);
-        return pixels[x][y];
-    }
-
     private int reflectX(int x){
         if (x == -1) return 0;
         if (x == width) return width - 1;
@@ -405,6 +823,117 @@ public class PixImage {
         return image;
     }
 
+    /**
+     * randomImage() returns a PixImage of the given size filled with random
+     * intensities drawn from a fixed seed.
+     *
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param seed the seed of the random number generator.
+     * @return a new random PixImage.
+     */
+    private static PixImage randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        PixImage image = new PixImage(width, height);
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setPixel(x, y, (short) random.nextInt(256),
+                               (short) random.nextInt(256),
+                               (short) random.nextInt(256));
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * approximateErrorOK() checks that boxBlurApproximate() is within the
+     * bounds documented there of boxBlur() at every pixel far enough from
+     * the borders, and prints the largest errors seen anywhere.
+     *
+     * @param image the image to blur.
+     * @param numIterations the number of iterations of box blurring.
+     * @param name a description of the image, for the report.
+     * @return true if every interior error is within the bounds.
+     */
+    private static boolean approximateErrorOK(PixImage image,
+                                              int numIterations, String name) {
+        PixImage exact = image.boxBlur(numIterations);
+        PixImage approximate = image.boxBlurApproximate(numIterations);
+        double bound = boxBlurApproximateError(numIterations);
+        int reach = boxBlurApproximateReach(numIterations);
+        // boxBlur() loses less than one level to rounding per iteration.
+        int drift = (numIterations <= ApproximateBlurEngine.MAX_PASSES) ?
+                    0 : numIterations;
+        int below = 0;
+        int above = 0;
+        int outer = 0;
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int[] errors = new int[] {
+                    approximate.getRed(x, y) - exact.getRed(x, y),
+                    approximate.getGreen(x, y) - exact.getGreen(x, y),
+                    approximate.getBlue(x, y) - exact.getBlue(x, y) };
+                for (int c = 0; c < 3; c++) {
+                    if (x >= reach && x < image.getWidth() - reach &&
+                        y >= reach && y < image.getHeight() - reach) {
+                        below = Math.max(below, -errors[c]);
+                        above = Math.max(above, errors[c]);
+                    } else {
+                        outer = Math.max(outer, Math.abs(errors[c]));
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("  %s, %d iterations:  largest " +
+                                         "error %d below and %d above " +
+                                         "inside, %d near borders, bound " +
+                                         "%.1f", name, numIterations, below,
+                                         above, outer, bound));
+        return below <= bound && above <= bound + drift;
+    }
+
+    /**
+     * slowBoxBlur() blurs an image one neighborhood at a time with
+     * getBluredPixel(), the definition that boxBlur() must reproduce.
+     *
+     * @param image the image to blur.
+     * @param numIterations the number of iterations of box blurring.
+     * @return a blurred copy of the image.
+     */
+    private static PixImage slowBoxBlur(PixImage image, int numIterations) {
+        for (int i = 0; i < numIterations; i++) {
+            PixImage blurred = new PixImage(image.getWidth(), image.getHeight());
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int y = 0; y < image.getHeight(); y++) {
+                    short[] rgb = image.getBluredPixel(x, y);
+                    blurred.setPixel(x, y, rgb[0], rgb[1], rgb[2]);
+                }
+            }
+            image = blurred;
+        }
+        return image;
+    }
+
+    /**
+     * slowSobelEdges() computes the Sobel edge image one neighborhood at a
+     * time with getEnergy(), the definition that sobelEdges() must reproduce.
+     *
+     * @param image the image to examine.
+     * @return the grayscale edge image.
+     */
+    private static PixImage slowSobelEdges(PixImage image) {
+        PixImage edges = new PixImage(image.getWidth(), image.getHeight());
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                short grey = mag2gray(image.getEnergy(x, y));
+                edges.setPixel(x, y, grey, grey, grey);
+            }
+        }
+        return edges;
+    }
+
     /**
      * equals() checks whether two images are the same, i.e. have the same
      * dimensions and pixels.
@@ -499,5 +1028,126 @@ public class PixImage {
             { 74, 143, 122 }
         })),
         "Incorrect Sobel:\n" + image2.sobelEdges());
+
+        System.out.println("Testing blurring and edge detection against " +
+                           "getBluredPixel() and getEnergy() on random images.");
+        int[][] sizes = new int[][] { { 1, 1 }, { 1, 5 }, { 5, 1 }, { 2, 2 },
+            { 17, 9 }, { 64, 33 }
+        };
+        for (int i = 0; i < sizes.length; i++) {
+            PixImage random = randomImage(sizes[i][0], sizes[i][1], i);
+            doTest(random.boxBlur(7).equals(slowBoxBlur(random, 7)),
+                   "Incorrect box blur (7 reps) on a " + sizes[i][0] + "x" +
+                   sizes[i][1] + " image.");
+            doTest(random.sobelEdges().equals(slowSobelEdges(random)),
+                   "Incorrect Sobel on a " + sizes[i][0] + "x" + sizes[i][1] +
+                   " image.");
+        }
+
+        System.out.println("Testing parallel blurring and edge detection on " +
+                           "a random image.");
+        PixImage image3 = randomImage(123, 301, 42);
+        doTest(image3.boxBlur(3, 4).equals(image3.boxBlur(3)),
+               "Parallel box blur differs from sequential box blur.");
+        doTest(image3.sobelEdges(4).equals(image3.sobelEdges()),
+               "Parallel Sobel differs from sequential Sobel.");
+
+        System.out.println("Testing PACKED storage on a random image.");
+        PixImage packed = new PixImage(123, 301, Storage.PACKED);
+        for (int x = 0; x < 123; x++) {
+            for (int y = 0; y < 301; y++) {
+                packed.setPixel(x, y, image3.getRed(x, y), image3.getGreen(x, y),
+                                image3.getBlue(x, y));
+            }
+        }
+        doTest(packed.equals(image3),
+               "PACKED image differs from SHORT_ARRAYS image.");
+        doTest(packed.boxBlur(3).equals(image3.boxBlur(3)) &&
+               packed.boxBlur(3).getStorage() == Storage.PACKED,
+               "Incorrect box blur on a PACKED image.");
+        doTest(packed.sobelEdges(4).equals(image3.sobelEdges()),
+               "Incorrect Sobel on a PACKED image.");
+        packed.setPixel(0, 0, (short) 256, (short) 0, (short) 0);
+        doTest(packed.getRed(0, 0) == image3.getRed(0, 0),
+               "setPixel() stored an intensity outside 0...255.");
+
+        System.out.println("Testing boxBlurApproximate() against boxBlur().");
+        PixImage squares = new PixImage(120, 90);
+        for (int x = 0; x < 120; x++) {
+            for (int y = 0; y < 90; y++) {
+                short value = (short) (((x / 8 + y / 8) % 2) * 255);
+                squares.setPixel(x, y, value, value, (short) (255 - value));
+            }
+        }
+        int[] iterations = new int[] { 1, 4, 6, 10, 25 };
+        for (int i = 0; i < iterations.length; i++) {
+            doTest(approximateErrorOK(randomImage(120, 90, 7), iterations[i],
+                                      "random 120x90"),
+                   "boxBlurApproximate() exceeds its error bound on a " +
+                   "random image.");
+            doTest(approximateErrorOK(squares, iterations[i],
+                                      "squares 120x90"),
+                   "boxBlurApproximate() exceeds its error bound on " +
+                   "squares.");
+        }
+        PixImage flat = new PixImage(200, 200);
+        for (int x = 0; x < 200; x++) {
+            for (int y = 0; y < 200; y++) {
+                flat.setPixel(x, y, (short) 255, (short) 128, (short) 0);
+            }
+        }
+        iterations = new int[] { 5, 10, 50, 200 };
+        for (int i = 0; i < iterations.length; i++) {
+            doTest(flat.boxBlurApproximate(iterations[i]).equals(flat),
+                   "boxBlurApproximate() changes a constant image.");
+        }
+        doTest(flat.boxBlurApproximate(70000).equals(flat),
+               "boxBlurApproximate() changes a constant image after many " +
+               "iterations.");
+
+        System.out.println("Testing incremental sobelEdges() on a sequence " +
+                           "of frames.");
+        Random frames = new Random(11);
+        PixImage frame = randomImage(80, 50, 12);
+        PixImage edges = frame.sobelEdges();
+        boolean sameEdges = true;
+        for (int f = 0; f < 20; f++) {
+            PixImage next = new PixImage(80, 50);
+            for (int x = 0; x < 80; x++) {
+                for (int y = 0; y < 50; y++) {
+                    next.setPixel(x, y, frame.getRed(x, y),
+                                  frame.getGreen(x, y), frame.getBlue(x, y));
+                }
+            }
+            // Change a few pixels, some of them on the borders.
+            for (int c = frames.nextInt(4); c > 0; c--) {
+                int x = frames.nextInt(3) == 0 ? 79 * frames.nextInt(2)
+                                               : frames.nextInt(80);
+                next.setPixel(x, frames.nextInt(50),
+                              (short) frames.nextInt(256), (short) 0,
+                              (short) frames.nextInt(256));
+            }
+            PixImage nextEdges = next.sobelEdges(frame, edges);
+            sameEdges &= nextEdges.equals(next.sobelEdges());
+            frame = next;
+            edges = nextEdges;
+        }
+        doTest(sameEdges, "Incremental sobelEdges() differs from " +
+               "sobelEdges().");
+
+        System.out.println("Testing mag2grayTable() against mag2gray().");
+        boolean sameGray = true;
+        for (long mag = -10; mag <= 6 * 1020 * 1020; mag++) {
+            sameGray &= mag2grayTable(mag) == mag2gray(mag);
+        }
+        for (int g = 1; g < 256; g++) {
+            for (long mag = grayThresholds[g] - 2; mag <= grayThresholds[g] + 2;
+                 mag++) {
+                sameGray &= mag2grayTable(mag) == mag2gray(mag);
+            }
+        }
+        sameGray &= mag2grayTable(Long.MAX_VALUE) == mag2gray(Long.MAX_VALUE);
+        sameGray &= mag2grayTable(Long.MIN_VALUE) == mag2gray(Long.MIN_VALUE);
+        doTest(sameGray, "mag2grayTable() differs from mag2gray().");
     }
 }
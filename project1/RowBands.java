@@ -0,0 +1,116 @@
+/* RowBands.java */
+
+/**
+ *  The RowBands class runs a row-by-row image operation on a ForkJoinPool.
+ *  The rows 0...height - 1 are split in half recursively until each piece is
+ *  a band of at most bandHeight rows, and the bands are processed in
+ *  parallel.
+ *
+ *  Each band writes only its own rows of the output.  Operations with a 3x3
+ *  stencil read one halo row above and below the band from the input, which
+ *  is never written while the bands run, so bands need no locking.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class RowBands extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *  A Body processes one band of rows.  It is called concurrently from
+     *  several threads, on disjoint bands.
+     */
+    interface Body {
+        void rows(int y0, int y1);
+    }
+
+    /**
+     *  The smallest band worth handing to another thread.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    /**
+     *  The number of bands per thread, so that threads that finish early can
+     *  steal work from the others.
+     */
+    private static final int BANDS_PER_THREAD = 4;
+
+    private final Body body;
+    private final int y0;
+    private final int y1;
+    private final int bandHeight;
+
+    private RowBands(Body body, int y0, int y1, int bandHeight) {
+        this.body = body;
+        this.y0 = y0;
+        this.y1 = y1;
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     *  run() processes rows 0...height - 1 with the given body.  If pool is
+     *  null, the rows are processed as one band on the calling thread.
+     *
+     *  @param pool the pool to run on, or null.
+     *  @param height the number of rows.
+     *  @param body the operation to perform on each band.
+     */
+    static void run(ForkJoinPool pool, int height, Body body) {
+        run(pool, height, MIN_BAND_HEIGHT, body);
+    }
+
+    /**
+     *  run() processes rows 0...height - 1 with the given body, in bands of
+     *  at least minBandHeight rows.  A "row" may be any unit of work large
+     *  enough to hand to another thread on its own, such as a TIFF strip,
+     *  in which case minBandHeight is 1.
+     *
+     *  @param pool the pool to run on, or null.
+     *  @param height the number of rows.
+     *  @param minBandHeight the fewest rows worth handing to another thread.
+     *  @param body the operation to perform on each band.
+     */
+    static void run(ForkJoinPool pool, int height, int minBandHeight,
+                    Body body) {
+        if (pool == null || pool.getParallelism() <= 1) {
+            body.rows(0, height);
+            return;
+        }
+
+        int bands = pool.getParallelism() * BANDS_PER_THREAD;
+        int bandHeight = Math.max(minBandHeight, (height + bands - 1) / bands);
+        pool.invoke(new RowBands(body, 0, height, bandHeight));
+    }
+
+    /**
+     *  newPool() returns a pool with the given number of threads, or null if
+     *  parallelism is 1 or less, meaning that work should run on the calling
+     *  thread.  Pools returned by newPool() should be shut down after use.
+     *
+     *  @param parallelism the number of threads.
+     *  @return a new ForkJoinPool, or null.
+     */
+    static ForkJoinPool newPool(int parallelism) {
+        if (parallelism <= 1) {
+            return null;
+        }
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     *  compute() processes this task's rows, splitting them in half if they
+     *  span more than one band.
+     */
+    protected void compute() {
+        if (y1 - y0 <= bandHeight) {
+            body.rows(y0, y1);
+            return;
+        }
+
+        int mid = (y0 + y1) >>> 1;
+        invokeAll(new RowBands(body, y0, mid, bandHeight),
+                  new RowBands(body, mid, y1, bandHeight));
+    }
+}
@@ -0,0 +1,780 @@
+/* RunFilterEngine.java */
+
+/**
+ *  The RunFilterEngine class performs box blurring and Sobel edge detection
+ *  directly on the runs of a RunLengthEncoding, without expanding it into a
+ *  PixImage.
+ *
+ *  The runs are first cut at row boundaries.  Each output row depends on
+ *  three input rows (the row and its neighbors above and below), and the run
+ *  boundaries of those three rows, taken together, cut the row into
+ *  segments in which each of the three rows has one color.  Every pixel
+ *  strictly inside a segment sees the same 3x3 neighborhood, so all of them
+ *  get the same output color, which is computed once and emitted as one
+ *  run.  Only the first and last pixel of each segment, whose neighborhoods
+ *  reach into the next segment, are computed pixel by pixel.  The cost of a
+ *  row is thus proportional to its number of runs, not its width, and flat
+ *  images or images with sparse detail are filtered far faster than by the
+ *  raster path.  (On noise, where every run is one pixel long, it does the
+ *  same work as the raster path, with more bookkeeping.)
+ *
+ *  The output is identical to RunLengthEncoding(image.boxBlur(n)) and
+ *  RunLengthEncoding(image.sobelEdges()) for image = rle.toPixImage():
+ *  blurring divides by the same border divisors as PixImage.getBluredPixel()
+ *  and rounds toward zero, and edge detection reflects the border pixels as
+ *  SobelEngine does and maps energies with PixImage.mag2grayTable().
+ */
+
+import java.util.Arrays;
+
+class RunFilterEngine {
+
+    /**
+     *  A Rows holds an image, or a span of columns of some of its rows, as
+     *  runs that do not cross row boundaries.  The runs of row y are indices
+     *  first[y]...first[y + 1] - 1; run i covers the pixels of its row from
+     *  the end of run i - 1 (or from[y], for the row's first run) up to but
+     *  not including ends[i], in the packed color colors[i].  No two
+     *  consecutive runs of a row have the same color.
+     */
+    static class Rows {
+        final int width;
+        final int height;
+        final int[] first;
+        final int[] from;
+        int[] ends = new int[64];
+        int[] colors = new int[64];
+        int count;
+        private int lastRow = -1;
+
+        Rows(int width, int height) {
+            this.width = width;
+            this.height = height;
+            first = new int[height + 1];
+            from = new int[height];
+        }
+
+        /**
+         *  clear() removes every run, so that the rows can be refilled.
+         */
+        void clear() {
+            count = 0;
+            lastRow = -1;
+        }
+
+        /**
+         *  put() extends row y with the given color up to (but not
+         *  including) column end.  Rows must be filled in order, from left
+         *  to right, each as one contiguous span; the first put() of a row
+         *  starts it at column x.
+         *
+         *  @param y the row.
+         *  @param x the first column of the new pixels.
+         *  @param color the packed color of the new pixels.
+         *  @param end one past the last column of the new pixels.
+         */
+        void put(int y, int x, int color, int end) {
+            if (y != lastRow) {
+                first[y] = count;
+                from[y] = x;
+                lastRow = y;
+            } else if (colors[count - 1] == color) {
+                ends[count - 1] = end;
+                return;
+            }
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, 2 * count);
+                colors = Arrays.copyOf(colors, 2 * count);
+            }
+            ends[count] = end;
+            colors[count] = color;
+            count ++;
+            first[y + 1] = count;
+        }
+
+        /**
+         *  start() returns the first column of run i of row y.
+         */
+        int start(int y, int i) {
+            return i == first[y] ? from[y] : ends[i - 1];
+        }
+
+        /**
+         *  leftOf() and rightOf() return the color of the pixel just left or
+         *  right of column x, where run i of row y holds x.  Beyond the edge
+         *  of the image they return the color at x itself.  The row must
+         *  hold the neighbor.
+         */
+        int leftOf(int y, int i, int x) {
+            return (x == 0 || x - 1 >= start(y, i)) ? colors[i] : colors[i - 1];
+        }
+
+        int rightOf(int i, int x) {
+            return (x + 1 == width || x + 1 < ends[i]) ? colors[i]
+                                                       : colors[i + 1];
+        }
+    }
+
+    private final int width;
+    private final int height;
+
+    /**
+     *  front holds the current image and back receives the next iteration.
+     */
+    private Rows front;
+    private Rows back;
+
+    /**
+     *  row[r] and run[r], for r = 0, 1, 2, are the row above, the row, and
+     *  the row below the one being computed, and the index of the run of
+     *  each that holds the current column.  rowCount is the number of them
+     *  in use:  blurring omits rows outside the image, so that row[] holds
+     *  only the rows that exist.
+     */
+    private final int[] row = new int[3];
+    private final int[] run = new int[3];
+    private int rowCount;
+
+    /**
+     *  RunFilterEngine() constructs an engine that filters the given
+     *  encoding.  The encoding is not changed.
+     *
+     *  @param rle the encoding to filter.
+     */
+    RunFilterEngine(RunLengthEncoding rle) {
+        this(rle, null);
+    }
+
+    /**
+     *  RunFilterEngine() (with two parameters) constructs an engine that
+     *  holds only some rows of the given encoding, for computing only some
+     *  rows of the output.
+     *
+     *  @param rle the encoding to filter.
+     *  @param needed needed[y] is true if row y is to be held, or null to
+     *  hold every row.
+     */
+    RunFilterEngine(RunLengthEncoding rle, boolean[] needed) {
+        width = rle.getWidth();
+        height = rle.getHeight();
+        front = new Rows(width, height);
+        back = new Rows(width, height);
+
+        // Cut the runs at row boundaries.
+        RunLengthStore runs = rle.getRuns();
+        int position = 0;
+        for (int c = 0 ; c < runs.chunkCount() ; c ++) {
+            RunLengthChunk chunk = runs.chunk(c);
+            for (int i = 0 ; i < chunk.size ; i ++) {
+                int color = chunk.colors[i];
+                int length = chunk.lengths[i];
+                while (length > 0) {
+                    int y = position / width;
+                    int x = position - y * width;
+                    int take = Math.min(length, width - x);
+                    if (needed == null || needed[y]) {
+                        front.put(y, x, color, x + take);
+                    }
+                    position += take;
+                    length -= take;
+                }
+            }
+        }
+    }
+
+    /**
+     *  RunFilterEngine() (with three parameters) constructs an engine that
+     *  holds only columns lo[y]...hi[y] of each row y of the given encoding
+     *  for which lo[y] <= hi[y].  The encoding's positional index finds the
+     *  start of each span, so the time taken is proportional to the number
+     *  of runs held, not the size of the encoding.
+     *
+     *  @param rle the encoding to filter.
+     *  @param lo the first column to hold in each row.
+     *  @param hi the last column to hold in each row.
+     */
+    RunFilterEngine(RunLengthEncoding rle, int[] lo, int[] hi) {
+        width = rle.getWidth();
+        height = rle.getHeight();
+        front = new Rows(width, height);
+        back = new Rows(width, height);
+
+        RunLengthStore runs = rle.getRuns();
+        for (int y = 0 ; y < height ; y ++) {
+            if (lo[y] > hi[y]) {
+                continue;
+            }
+            RunCursor cursor = new RunCursor(runs, y * width + lo[y]);
+            for (int x = lo[y] ; x <= hi[y] ; ) {
+                int take = Math.min(cursor.left, hi[y] + 1 - x);
+                front.put(y, x, cursor.color(), x + take);
+                cursor.skip(take);
+                x += take;
+            }
+        }
+    }
+
+    /**
+     *  blur() returns the encoding of numIterations iterations of box
+     *  blurring.
+     *
+     *  @param numIterations the number of iterations.
+     *  @return the blurred encoding.
+     */
+    RunLengthEncoding blur(int numIterations) {
+        for (int i = 0 ; i < numIterations ; i ++) {
+            back.clear();
+            for (int y = 0 ; y < height ; y ++) {
+                rowCount = 0;
+                for (int r = y - 1 ; r <= y + 1 ; r ++) {
+                    if (r >= 0 && r < height) {
+                        row[rowCount ++] = r;
+                    }
+                }
+                int rowDivisor = (y == 0 || y == height - 1) ? 2 : 3;
+                blurRow(y, rowDivisor);
+            }
+            Rows temp = front;
+            front = back;
+            back = temp;
+        }
+        return encode(front);
+    }
+
+    /**
+     *  blurRow() writes row y of the next iteration into back.
+     *
+     *  @param y the row.
+     *  @param rowDivisor 2 if y is the top or bottom row, 3 otherwise.
+     */
+    private void blurRow(int y, int rowDivisor) {
+        startRow();
+        int x = 0;
+        while (x < width) {
+            int end = segmentEnd();
+
+            back.put(y, x, blurPixel(x, rowDivisor), x + 1);
+            if (end - x > 2) {
+                // Inside the segment, each row contributes three pixels of
+                // its color, so the sum over the 3x3 box is 3 times the sum
+                // of the row colors, and the divisor is 3 * rowDivisor.
+                int red = 0, green = 0, blue = 0;
+                for (int r = 0 ; r < rowCount ; r ++) {
+                    int color = front.colors[run[r]];
+                    red += RunLengthStore.red(color);
+                    green += RunLengthStore.green(color);
+                    blue += RunLengthStore.blue(color);
+                }
+                back.put(y, x + 1,
+                         RunLengthStore.pack(red / rowDivisor,
+                                             green / rowDivisor,
+                                             blue / rowDivisor),
+                         end - 1);
+            }
+            if (end - x > 1) {
+                back.put(y, end - 1, blurPixel(end - 1, rowDivisor), end);
+            }
+
+            advance(end);
+            x = end;
+        }
+    }
+
+    /**
+     *  blurPixel() returns the blurred color of column x of the current row,
+     *  the same as PixImage.getBluredPixel().
+     *
+     *  @param x the column; the current run of every row must hold it.
+     *  @param rowDivisor 2 if the row is the top or bottom row, 3 otherwise.
+     *  @return the packed blurred color.
+     */
+    private int blurPixel(int x, int rowDivisor) {
+        int red = 0, green = 0, blue = 0;
+        for (int r = 0 ; r < rowCount ; r ++) {
+            int i = run[r];
+            int center = front.colors[i];
+            red += RunLengthStore.red(center);
+            green += RunLengthStore.green(center);
+            blue += RunLengthStore.blue(center);
+            if (x > 0) {
+                int left = front.leftOf(row[r], i, x);
+                red += RunLengthStore.red(left);
+                green += RunLengthStore.green(left);
+                blue += RunLengthStore.blue(left);
+            }
+            if (x < width - 1) {
+                int right = front.rightOf(i, x);
+                red += RunLengthStore.red(right);
+                green += RunLengthStore.green(right);
+                blue += RunLengthStore.blue(right);
+            }
+        }
+        int divisor = ((x == 0 || x == width - 1) ? 2 : 3) * rowDivisor;
+        return RunLengthStore.pack(red / divisor, green / divisor,
+                                   blue / divisor);
+    }
+
+    /**
+     *  edges() returns the encoding of the grayscale edge image.
+     *
+     *  @return the edge encoding.
+     */
+    RunLengthEncoding edges() {
+        back.clear();
+        rowCount = 3;
+        for (int y = 0 ; y < height ; y ++) {
+            // Rows beyond the top and bottom are reflected.
+            row[0] = Math.max(y - 1, 0);
+            row[1] = y;
+            row[2] = Math.min(y + 1, height - 1);
+            edgeRow(y);
+        }
+        return encode(back);
+    }
+
+    /**
+     *  edges() (with three parameters) returns the encoding of the grayscale
+     *  edge image of next, given an earlier frame and its edge encoding.
+     *  The two frames' runs are walked side by side to find, in each row,
+     *  the span from the first to the last changed pixel.  Each span,
+     *  widened by one pixel, is recomputed in its row and the rows above and
+     *  below (the pixels whose 3x3 neighborhoods include a change), as
+     *  SobelEngine.update() does; only the columns those pixels read are cut
+     *  out of next.  Everything else is copied from previousEdges a run at a
+     *  time.  Finding the changes and copying are linear in the number of
+     *  runs, but cheap per run; the filtering is proportional to the change.
+     *
+     *  @param previous the earlier frame.
+     *  @param previousEdges the edge encoding of the earlier frame.
+     *  @param next the frame to find the edges of.
+     *  @return the edge encoding of next.
+     */
+    static RunLengthEncoding edges(RunLengthEncoding previous,
+                                   RunLengthEncoding previousEdges,
+                                   RunLengthEncoding next) {
+        int width = next.getWidth();
+        int height = next.getHeight();
+
+        // lo[y]...hi[y] are the changed columns of row y.
+        int[] lo = new int[height];
+        int[] hi = new int[height];
+        Arrays.fill(lo, width);
+        Arrays.fill(hi, -1);
+        RunCursor before = new RunCursor(previous.getRuns(), 0);
+        RunCursor after = new RunCursor(next.getRuns(), 0);
+        for (int position = 0 ; position < width * height ; ) {
+            position += RunCursor.skipEqual(before, after);
+            if (position == width * height) {
+                break;
+            }
+            int take = Math.min(before.left, after.left);
+            if (before.color() != after.color()) {
+                int last = position + take - 1;
+                for (int y = position / width ; y <= last / width ; y ++) {
+                    lo[y] = Math.min(lo[y], Math.max(position - y * width, 0));
+                    hi[y] = Math.max(hi[y], Math.min(last - y * width,
+                                                     width - 1));
+                }
+            }
+            before.skip(take);
+            after.skip(take);
+            position += take;
+        }
+
+        // Widen the changes by one pixel to get the pixels to recompute,
+        // and those by one more to get the pixels they read.
+        int[] outLo = new int[height];
+        int[] outHi = new int[height];
+        widen(lo, hi, outLo, outHi, width);
+        int[] inLo = new int[height];
+        int[] inHi = new int[height];
+        widen(outLo, outHi, inLo, inHi, width);
+
+        RunFilterEngine engine = new RunFilterEngine(next, inLo, inHi);
+        Rows rows = engine.back;
+        engine.rowCount = 3;
+        Appender out = new Appender();
+        RunCursor old = new RunCursor(previousEdges.getRuns(), 0);
+        // unchanged counts the pixels of previousEdges waiting to be copied.
+        int unchanged = 0;
+        for (int y = 0 ; y < height ; y ++) {
+            if (outLo[y] > outHi[y]) {
+                unchanged += width;
+                continue;
+            }
+            old.copy(out, unchanged + outLo[y]);
+            engine.row[0] = Math.max(y - 1, 0);
+            engine.row[1] = y;
+            engine.row[2] = Math.min(y + 1, height - 1);
+            engine.edgeSpan(y, outLo[y], outHi[y]);
+            for (int i = rows.first[y] ; i < rows.first[y + 1] ; i ++) {
+                out.add(rows.colors[i], rows.ends[i] - rows.start(y, i));
+            }
+            old.skip(outHi[y] - outLo[y] + 1);
+            unchanged = width - 1 - outHi[y];
+        }
+        old.copy(out, unchanged);
+        return new RunLengthEncoding(width, height, out.finish());
+    }
+
+    /**
+     *  widen() sets wideLo[y]...wideHi[y] to the columns within one pixel,
+     *  in any direction, of columns lo[r]...hi[r] of some row r, for every
+     *  row y.  A row with lo[r] > hi[r] has no columns.
+     */
+    private static void widen(int[] lo, int[] hi, int[] wideLo, int[] wideHi,
+                              int width) {
+        int height = lo.length;
+        for (int y = 0 ; y < height ; y ++) {
+            int l = width;
+            int h = -1;
+            for (int r = Math.max(y - 1, 0) ; r <= Math.min(y + 1, height - 1) ;
+                 r ++) {
+                if (lo[r] <= hi[r]) {
+                    l = Math.min(l, lo[r] - 1);
+                    h = Math.max(h, hi[r] + 1);
+                }
+            }
+            wideLo[y] = Math.max(l, 0);
+            wideHi[y] = Math.min(h, width - 1);
+        }
+    }
+
+    /**
+     *  edgeRow() writes row y of the edge image into back.
+     *
+     *  @param y the row.
+     */
+    private void edgeRow(int y) {
+        edgeSpan(y, 0, width - 1);
+    }
+
+    /**
+     *  edgeSpan() writes columns x0...x1 of row y of the edge image into
+     *  back.  The rows in row[] must hold columns x0 - 1...x1 + 1 (those
+     *  within the image).  A segment cut short by x0 or x1 is still uniform
+     *  inside, so the segments are simply clipped to the span.
+     *
+     *  @param y the row.
+     *  @param x0 the first column to write.
+     *  @param x1 the last column to write.
+     */
+    private void edgeSpan(int y, int x0, int x1) {
+        startRow();
+        for (int r = 0 ; r < rowCount ; r ++) {
+            while (front.ends[run[r]] <= x0) {
+                run[r] ++;
+            }
+        }
+        int x = x0;
+        while (x <= x1) {
+            int end = Math.min(segmentEnd(), x1 + 1);
+
+            back.put(y, x, edgePixel(x), x + 1);
+            if (end - x > 2) {
+                // Inside the segment there is no horizontal gradient, and
+                // the vertical gradient of each channel is 4 times the
+                // difference between the rows above and below.
+                int above = front.colors[run[0]];
+                int below = front.colors[run[2]];
+                int dr = 4 * (RunLengthStore.red(above) -
+                              RunLengthStore.red(below));
+                int dg = 4 * (RunLengthStore.green(above) -
+                              RunLengthStore.green(below));
+                int db = 4 * (RunLengthStore.blue(above) -
+                              RunLengthStore.blue(below));
+                back.put(y, x + 1, gray(dr * dr + dg * dg + db * db), end - 1);
+            }
+            if (end - x > 1) {
+                back.put(y, end - 1, edgePixel(end - 1), end);
+            }
+
+            advance(end);
+            x = end;
+        }
+    }
+
+    /**
+     *  edgePixel() returns the edge color of column x of the current row,
+     *  the same as SobelEngine.
+     *
+     *  @param x the column; the current run of every row must hold it.
+     *  @return the packed gray color.
+     */
+    private int edgePixel(int x) {
+        int i0 = run[0];
+        int i1 = run[1];
+        int i2 = run[2];
+        int aboveLeft = front.leftOf(row[0], i0, x);
+        int above = front.colors[i0];
+        int aboveRight = front.rightOf(i0, x);
+        int left = front.leftOf(row[1], i1, x);
+        int right = front.rightOf(i1, x);
+        int belowLeft = front.leftOf(row[2], i2, x);
+        int below = front.colors[i2];
+        int belowRight = front.rightOf(i2, x);
+
+        int energy = 0;
+        for (int shift = 0 ; shift <= 16 ; shift += 8) {
+            int al = (aboveLeft >> shift) & 0xFF;
+            int ac = (above >> shift) & 0xFF;
+            int ar = (aboveRight >> shift) & 0xFF;
+            int bl = (belowLeft >> shift) & 0xFF;
+            int bc = (below >> shift) & 0xFF;
+            int br = (belowRight >> shift) & 0xFF;
+            int gx = (al + 2 * ((left >> shift) & 0xFF) + bl) -
+                     (ar + 2 * ((right >> shift) & 0xFF) + br);
+            int gy = (al + 2 * ac + ar) - (bl + 2 * bc + br);
+            energy += gx * gx + gy * gy;
+        }
+        return gray(energy);
+    }
+
+    /**
+     *  gray() returns the packed gray color of the given energy.
+     */
+    private static int gray(int energy) {
+        int g = PixImage.mag2grayTable(energy);
+        return RunLengthStore.pack(g, g, g);
+    }
+
+    /**
+     *  startRow() points each of the rows in use at its first run.
+     */
+    private void startRow() {
+        for (int r = 0 ; r < rowCount ; r ++) {
+            run[r] = front.first[row[r]];
+        }
+    }
+
+    /**
+     *  segmentEnd() returns the column where the first of the current runs
+     *  ends.
+     */
+    private int segmentEnd() {
+        int end = width;
+        for (int r = 0 ; r < rowCount ; r ++) {
+            end = Math.min(end, front.ends[run[r]]);
+        }
+        return end;
+    }
+
+    /**
+     *  advance() moves past every current run that ends at column end.
+     */
+    private void advance(int end) {
+        for (int r = 0 ; r < rowCount ; r ++) {
+            if (front.ends[run[r]] == end) {
+                run[r] ++;
+            }
+        }
+    }
+
+    /**
+     *  encode() joins the rows into a RunLengthEncoding, merging runs that
+     *  continue from the end of one row to the start of the next.
+     *
+     *  @param rows the rows to encode.
+     *  @return the encoding.
+     */
+    private RunLengthEncoding encode(Rows rows) {
+        Appender out = new Appender();
+        for (int y = 0 ; y < height ; y ++) {
+            for (int i = rows.first[y] ; i < rows.first[y + 1] ; i ++) {
+                out.add(rows.colors[i], rows.ends[i] - rows.start(y, i));
+            }
+        }
+        return new RunLengthEncoding(width, height, out.finish());
+    }
+
+    /**
+     *  An Appender builds a RunLengthStore from pieces of runs given in
+     *  order, merging consecutive pieces of the same color.
+     */
+    private static class Appender {
+        private final RunLengthStore runs = new RunLengthStore();
+        private int color = -1;
+        private int length = 0;
+
+        void add(int pieceColor, int pieceLength) {
+            if (pieceColor == color) {
+                length += pieceLength;
+            } else {
+                if (length > 0) {
+                    runs.append(color, length);
+                }
+                color = pieceColor;
+                length = pieceLength;
+            }
+        }
+
+        /**
+         *  add() (with four parameters) adds runs from...to - 1 of the
+         *  given arrays, which must not have two consecutive runs of the
+         *  same color.  Only the first run can merge with the piece before
+         *  it, so the others are copied in bulk.
+         */
+        void add(int[] colors, int[] lengths, int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            add(colors[from], lengths[from]);
+            if (to - from > 1) {
+                runs.append(color, length);
+                runs.append(colors, lengths, from + 1, to - 1);
+                color = colors[to - 1];
+                length = lengths[to - 1];
+            }
+        }
+
+        RunLengthStore finish() {
+            if (length > 0) {
+                runs.append(color, length);
+                length = 0;
+            }
+            return runs;
+        }
+    }
+
+    /**
+     *  A RunCursor walks the pixels of a RunLengthStore in order, a piece
+     *  of a run at a time.  left is the number of pixels remaining in the
+     *  current run, whose color is color().  The current chunk's arrays are
+     *  cached, so that moving to the next run is only a few operations.
+     */
+    private static class RunCursor {
+        private final RunLengthStore runs;
+        private int chunk;
+        private int index;
+        private int[] colors;
+        private int[] lengths;
+        private int[] ends;
+        private int size;
+        int left;
+
+        /**
+         *  RunCursor() constructs a cursor at the given pixel, found with the
+         *  store's positional index.
+         */
+        RunCursor(RunLengthStore runs, int position) {
+            this.runs = runs;
+            if (runs.chunkCount() == 0) {
+                return;
+            }
+            int start = 0;
+            if (position > 0) {
+                runs.locate(position);
+                chunk = runs.foundChunk();
+                index = runs.foundIndex();
+                start = runs.foundStart();
+            }
+            load();
+            left = start + lengths[index] - position;
+        }
+
+        /**
+         *  load() caches the arrays of the current chunk.
+         */
+        private void load() {
+            RunLengthChunk c = runs.chunk(chunk);
+            colors = c.colors;
+            lengths = c.lengths;
+            ends = c.ends;
+            size = c.size;
+        }
+
+        int color() {
+            return colors[index];
+        }
+
+        /**
+         *  next() moves to the start of the next run, if there is one.
+         */
+        private void next() {
+            index ++;
+            if (index == size) {
+                chunk ++;
+                index = 0;
+                if (chunk == runs.chunkCount()) {
+                    left = 0;
+                    return;
+                }
+                load();
+            }
+            left = lengths[index];
+        }
+
+        /**
+         *  skip() moves n pixels forward.
+         */
+        void skip(int n) {
+            while (n >= left && n > 0) {
+                n -= left;
+                next();
+            }
+            left -= n;
+        }
+
+        /**
+         *  skipEqual() moves a and b, which must be at the same pixel, past
+         *  the runs that the two have in common from there, and returns the
+         *  number of pixels skipped.  Runs that are identical in both stores
+         *  are compared pairwise in a tight loop, a chunk at a time.
+         */
+        static int skipEqual(RunCursor a, RunCursor b) {
+            int skipped = 0;
+            while (a.left > 0 && a.left == b.left &&
+                   a.left == a.lengths[a.index] &&
+                   b.left == b.lengths[b.index] &&
+                   a.colors[a.index] == b.colors[b.index]) {
+                int i = a.index;
+                int j = b.index;
+                int[] aColors = a.colors;
+                int[] aLengths = a.lengths;
+                int[] bColors = b.colors;
+                int[] bLengths = b.lengths;
+                int limit = Math.min(a.size - i, b.size - j);
+                int k = 1;
+                while (k < limit && aColors[i + k] == bColors[j + k] &&
+                       aLengths[i + k] == bLengths[j + k]) {
+                    k ++;
+                }
+                // Runs i...i + k - 1 and j...j + k - 1 are equal.
+                int pixels = a.ends[i + k - 1] - a.ends[i] + aLengths[i];
+                skipped += pixels;
+                a.index = i + k - 1;
+                b.index = j + k - 1;
+                a.next();
+                b.next();
+            }
+            return skipped;
+        }
+
+        /**
+         *  copy() appends the next n pixels to out and moves past them.
+         *  Whole runs are copied a chunk's worth at a time.
+         */
+        void copy(Appender out, int n) {
+            while (n > 0) {
+                if (left < lengths[index] || n < left) {
+                    // Part of a run.
+                    int take = Math.min(n, left);
+                    out.add(colors[index], take);
+                    n -= take;
+                    skip(take);
+                    continue;
+                }
+                // Runs index...last of this chunk fit in n.
+                int base = ends[index] - lengths[index];
+                int last = index;
+                while (last + 1 < size && ends[last + 1] - base <= n) {
+                    last ++;
+                }
+                out.add(colors, lengths, index, last + 1);
+                n -= ends[last] - base;
+                index = last;
+                next();
+            }
+        }
+    }
+}
@@ -36,13 +36,15 @@ public class RunIterator implements Iterator {
    *  Define any variables associated with a RunIterator object here.
    *  These variables MUST be private.
    */
-  private RunLengthListNode headNode;
-  private RunLengthListNode currentNode;
+  private RunLengthStore store;
+  private int chunk;
+  private int index;
 
   /**
-   *  RunIterator() constructs a new iterator starting with a specified run.
+   *  RunIterator() constructs a new iterator starting with the first run of
+   *  a run store.
    *
-   *  @param node the run where this iterator starts.
+   *  @param store the runs to iterate over.
    */
   // Unlike all the other methods we have asked you to write, the RunIterator()
   // constructor does not have a predefined signature, because no outside
@@ -53,9 +55,10 @@ public class RunIterator implements Iterator {
   // constructor that you want so that your RunLengthEncoding.iterator()
   // implementation can construct a RunIterator that points to the first run of
   // the encoding.
-  RunIterator(RunLengthListNode headNode) {
-    this.headNode = headNode;
-    currentNode = headNode;
+  RunIterator(RunLengthStore store) {
+    this.store = store;
+    chunk = 0;
+    index = 0;
   }
 
   /**
@@ -65,9 +68,7 @@ public class RunIterator implements Iterator {
    *  @return true if the iterator has more elements.
    */
   public boolean hasNext() {
-    if (currentNode.next != headNode) return true;
-    
-    return false;
+    return chunk < store.chunkCount();
   }
 
   /**
@@ -97,11 +98,18 @@ public class RunIterator implements Iterator {
     // call to next() will return the subsequent run.
     int[] result = new int[4];
     if (!hasNext()) throw new NoSuchElementException();
-    currentNode = currentNode.next;
-    result[0] = currentNode.repeatedNumbers;
-    result[1] = currentNode.redValue;
-    result[2] = currentNode.greenValue;
-    result[3] = currentNode.blueValue;
+    RunLengthChunk current = store.chunk(chunk);
+    int color = current.colors[index];
+    result[0] = current.lengths[index];
+    result[1] = RunLengthStore.red(color);
+    result[2] = RunLengthStore.green(color);
+    result[3] = RunLengthStore.blue(color);
+
+    index ++;
+    if (index == current.size) {
+      chunk ++;
+      index = 0;
+    }
 
     return result;
   }
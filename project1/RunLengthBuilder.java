@@ -0,0 +1,92 @@
+/* RunLengthBuilder.java */
+
+/**
+ *  A RunLengthBuilder builds a RunLengthEncoding from the rows of an image,
+ *  given one at a time from top to bottom.  Only the runs are kept, so an
+ *  image can be encoded without ever holding more than one of its rows.
+ *
+ *  Each pixel's red, green, and blue intensities are packed into one int, so
+ *  deciding whether a pixel continues the current run takes one comparison.
+ */
+
+class RunLengthBuilder {
+
+    private final int width;
+    private final int height;
+    private final RunLengthStore runs = new RunLengthStore();
+
+    /**
+     *  color and length describe the run in progress, which has not yet been
+     *  appended to runs.  rows is the number of rows added so far.
+     */
+    private int color = -1;
+    private int length = 0;
+    private int rows = 0;
+
+    /**
+     *  RunLengthBuilder() constructs a builder for an image of the given size.
+     *
+     *  @param width the width of the image.
+     *  @param height the height of the image.
+     */
+    RunLengthBuilder(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     *  addRow() adds the next row of the image.
+     *
+     *  @param rgb holds the row as width red, green, blue byte triples.
+     *  @param offset the index in rgb of the red byte of the row's first pixel.
+     */
+    void addRow(byte[] rgb, int offset) {
+        int end = offset + 3 * width;
+        for (int i = offset ; i < end ; i += 3) {
+            int pixel = ((rgb[i] & 0xFF) << 16) | ((rgb[i + 1] & 0xFF) << 8) |
+                        (rgb[i + 2] & 0xFF);
+            if (pixel == color) {
+                length ++;
+            } else {
+                if (length > 0) {
+                    runs.append(color, length);
+                }
+                color = pixel;
+                length = 1;
+            }
+        }
+        rows ++;
+    }
+
+    /**
+     *  build() returns the RunLengthEncoding of the rows added.  The builder
+     *  must not be used afterward.
+     *
+     *  @return the run-length encoding of the image.
+     *  @throws IllegalStateException if fewer or more than height rows were
+     *  added.
+     */
+    RunLengthEncoding build() {
+        return new RunLengthEncoding(width, height, finish());
+    }
+
+    /**
+     *  finish() ends the last run and returns the runs of the rows added.
+     *  The builder must not be used afterward.
+     *
+     *  @return the runs of the image.
+     *  @throws IllegalStateException if fewer or more than height rows were
+     *  added.
+     */
+    RunLengthStore finish() {
+        if (rows != height) {
+            throw new IllegalStateException("Expected " + height +
+                                            " rows but got " + rows + ".");
+        }
+        if (length > 0) {
+            runs.append(color, length);
+            length = 0;
+        }
+        return runs;
+    }
+}
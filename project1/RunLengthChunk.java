@@ -0,0 +1,154 @@
+/* RunLengthChunk.java */
+
+/**
+ *  A RunLengthChunk holds a block of consecutive runs of a RunLengthStore in
+ *  parallel arrays:  run i of the chunk covers lengths[i] pixels of color
+ *  colors[i], packed as 0xRRGGBB.  ends[i] is the total length of runs
+ *  0...i, so the run holding a given pixel of the chunk can be found by
+ *  binary search.
+ */
+
+class RunLengthChunk {
+
+    /**
+     *  The number of runs a chunk can hold.
+     */
+    static final int CAPACITY = 128;
+
+    /**
+     *  size is the number of runs in use, in indices 0...size - 1.
+     */
+    final int[] lengths = new int[CAPACITY];
+    final int[] colors = new int[CAPACITY];
+    final int[] ends = new int[CAPACITY];
+    int size;
+
+    /**
+     *  pixels() returns the total length of the chunk's runs.
+     *
+     *  @return the number of pixels in the chunk.
+     */
+    int pixels() {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    /**
+     *  isFull() returns true if the chunk cannot take another run.
+     *
+     *  @return true if size == CAPACITY.
+     */
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    /**
+     *  find() returns the index of the run holding the given pixel of the
+     *  chunk.
+     *
+     *  @param offset the index of a pixel, counted from the chunk's first
+     *  pixel, in 0...pixels() - 1.
+     *  @return the smallest i such that ends[i] > offset.
+     */
+    int find(int offset) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] > offset) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     *  insert() inserts a run at index i, moving runs i...size - 1 up by one.
+     *  The chunk must not be full.
+     *
+     *  @param i the index of the new run, in 0...size.
+     *  @param color the packed color of the run.
+     *  @param length the number of pixels in the run.
+     */
+    void insert(int i, int color, int length) {
+        System.arraycopy(lengths, i, lengths, i + 1, size - i);
+        System.arraycopy(colors, i, colors, i + 1, size - i);
+        lengths[i] = length;
+        colors[i] = color;
+        size ++;
+        updateEnds(i);
+    }
+
+    /**
+     *  append() adds count runs after the last run, copied from colors[] and
+     *  lengths[] starting at index from.  There must be room for them.
+     *
+     *  @param colors the packed colors of the runs to copy.
+     *  @param lengths the lengths of the runs to copy.
+     *  @param from the index in colors[] and lengths[] of the first run.
+     *  @param count the number of runs to copy.
+     */
+    void append(int[] colors, int[] lengths, int from, int count) {
+        System.arraycopy(colors, from, this.colors, size, count);
+        System.arraycopy(lengths, from, this.lengths, size, count);
+        size += count;
+        updateEnds(size - count);
+    }
+
+    /**
+     *  remove() removes the run at index i, moving runs i + 1...size - 1 down
+     *  by one.
+     *
+     *  @param i the index of the run to remove.
+     */
+    void remove(int i) {
+        System.arraycopy(lengths, i + 1, lengths, i, size - i - 1);
+        System.arraycopy(colors, i + 1, colors, i, size - i - 1);
+        size --;
+        updateEnds(i);
+    }
+
+    /**
+     *  addLength() adds delta to the length of run i.
+     *
+     *  @param i the index of the run.
+     *  @param delta the change in length.
+     */
+    void addLength(int i, int delta) {
+        lengths[i] += delta;
+        for (int j = i ; j < size ; j ++) {
+            ends[j] += delta;
+        }
+    }
+
+    /**
+     *  splitOff() moves the upper half of this chunk's runs into a new chunk
+     *  and returns it.
+     *
+     *  @return a new chunk holding the runs formerly at size / 2...size - 1.
+     */
+    RunLengthChunk splitOff() {
+        RunLengthChunk upper = new RunLengthChunk();
+        int half = size / 2;
+        upper.size = size - half;
+        System.arraycopy(lengths, half, upper.lengths, 0, upper.size);
+        System.arraycopy(colors, half, upper.colors, 0, upper.size);
+        upper.updateEnds(0);
+        size = half;
+        return upper;
+    }
+
+    /**
+     *  updateEnds() recomputes ends[i...size - 1] from the lengths.
+     *
+     *  @param i the first entry to recompute.
+     */
+    private void updateEnds(int i) {
+        int end = i == 0 ? 0 : ends[i - 1];
+        for (int j = i ; j < size ; j ++) {
+            end += lengths[j];
+            ends[j] = end;
+        }
+    }
+}
@@ -21,7 +21,10 @@
  *  See the README file accompanying this project for additional details.
  */
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RunLengthEncoding implements Iterable {
 
@@ -31,7 +34,48 @@ public class RunLengthEncoding implements Iterable {
      */
     private int width;
     private int height;
-    private RunLengthList pixelList;
+    private RunLengthStore runs;
+
+    /**
+     *  The number of changes to this encoding that were eligible for
+     *  validation; SAMPLED checks every SAMPLE_INTERVAL-th of them.
+     */
+    private int changes;
+
+    /**
+     *  The Validation enum selects how often an encoding is checked with
+     *  check() after the constructors and setPixel() change it.  OFF never
+     *  checks, and does not count changes either, so it costs setPixel()
+     *  nothing; SAMPLED checks one change in every SAMPLE_INTERVAL made to
+     *  each encoding; FULL checks every change.  check() walks every run, so
+     *  only OFF and SAMPLED keep setPixel() fast.
+     *
+     *  The policy is shared by all encodings.  It starts as the value of the
+     *  system property "rle.validation" if that is set (for example,
+     *  -Drle.validation=FULL), or else FULL if assertions are enabled (-ea)
+     *  and OFF if they are not.  A property that names no policy is reported
+     *  on System.err and ignored.
+     */
+    public static enum Validation { OFF, SAMPLED, FULL }
+
+    private static final int SAMPLE_INTERVAL = 1024;
+
+    /**
+     *  The number of rows the one-parameter constructor reads from a PixImage
+     *  at a time.
+     */
+    private static final int ENCODE_BAND_HEIGHT = 32;
+
+    private static volatile Validation validation = initialValidation();
+
+    /**
+     *  changeCount counts the changes, made while the policy was not OFF,
+     *  that were eligible for validation, and validationCount the number of
+     *  times check() actually ran on them.  They are LongAdders so that
+     *  encodings changed on different threads do not contend for them.
+     */
+    private static final LongAdder changeCount = new LongAdder();
+    private static final LongAdder validationCount = new LongAdder();
 
     /**
      *  The following methods are required for Part II.
@@ -50,7 +94,8 @@ public class RunLengthEncoding implements Iterable {
         this.width = width;
         this.height = height;
 
-        pixelList = new RunLengthList((short) 0, (short) 0, (short) 0, width * height);
+        runs = new RunLengthStore();
+        runs.append(RunLengthStore.pack(0, 0, 0), width * height);
     }
 
     /**
@@ -79,13 +124,29 @@ public class RunLengthEncoding implements Iterable {
         this.width = width;
         this.height = height;
 
-        pixelList = new RunLengthList();
+        runs = new RunLengthStore();
 
         for (int i = 0 ; i < runLengths.length ; i ++) {
-            pixelList.insertBack((short) red[i], (short) green[i], (short) blue[i], runLengths[i]);
+            runs.append(RunLengthStore.pack(red[i], green[i], blue[i]), runLengths[i]);
         }
     }
 
+    /**
+     *  RunLengthEncoding() (with three parameters) constructs a run-length
+     *  encoding of a PixImage of the specified width and height from runs
+     *  that have already been built, for example by a RunLengthBuilder.
+     *
+     *  @param width the width of the image.
+     *  @param height the height of the image.
+     *  @param runs the runs of the encoding, which now belong to it.
+     */
+    RunLengthEncoding(int width, int height, RunLengthStore runs) {
+        this.width = width;
+        this.height = height;
+        this.runs = runs;
+        validate();
+    }
+
     /**
      *  getWidth() returns the width of the image that this run-length encoding
      *  represents.
@@ -115,7 +176,18 @@ public class RunLengthEncoding implements Iterable {
      *  RunLengthEncoding.
      */
     public RunIterator iterator() {
-        return new RunIterator(pixelList.head);
+        return new RunIterator(runs);
+    }
+
+    /**
+     *  getRuns() returns the runs of this RunLengthEncoding, so that code in
+     *  this package can read them without a RunIterator.  Callers must not
+     *  change them.
+     *
+     *  @return the runs of the encoding.
+     */
+    RunLengthStore getRuns() {
+        return runs;
     }
 
     /**
@@ -126,17 +198,35 @@ public class RunLengthEncoding implements Iterable {
      */
     public PixImage toPixImage() {
         PixImage resultPixImage = new PixImage(width, height);
-        RunIterator iterator = iterator();
-        int totalPixels = 0;
-
-        while (iterator.hasNext()) {
-            int[] currentRunInfo = iterator.next();
-            for (int i = 0 ; i < currentRunInfo[0] ; i ++) {
-                int x = ( totalPixels + i ) % width;
-                int y = ( totalPixels + i ) / width;
-                resultPixImage.setPixel(x, y, (short) currentRunInfo[1], (short) currentRunInfo[2], (short) currentRunInfo[3]);
+        byte[] row = new byte[3 * width];
+        int x = 0;
+        int y = 0;
+
+        // Fill one row of bytes at a time, straight from the run arrays.
+        for (int c = 0 ; c < runs.chunkCount() ; c ++) {
+            RunLengthChunk chunk = runs.chunk(c);
+            for (int i = 0 ; i < chunk.size ; i ++) {
+                byte red = (byte) RunLengthStore.red(chunk.colors[i]);
+                byte green = (byte) RunLengthStore.green(chunk.colors[i]);
+                byte blue = (byte) RunLengthStore.blue(chunk.colors[i]);
+                int remaining = chunk.lengths[i];
+
+                while (remaining > 0) {
+                    int count = Math.min(remaining, width - x);
+                    for (int j = 3 * x ; j < 3 * (x + count) ; j += 3) {
+                        row[j] = red;
+                        row[j + 1] = green;
+                        row[j + 2] = blue;
+                    }
+                    x += count;
+                    remaining -= count;
+                    if (x == width) {
+                        resultPixImage.copyRowFrom(y, row, 0);
+                        x = 0;
+                        y ++;
+                    }
+                }
             }
-            totalPixels += currentRunInfo[0];
         }
 
         return resultPixImage;
@@ -180,35 +270,101 @@ public class RunLengthEncoding implements Iterable {
     public RunLengthEncoding(PixImage image) {
         this.width = image.getWidth();
         this.height = image.getHeight();
-        pixelList = new RunLengthList();
-
-        int start = 0, end = 0;
-        boolean running = true;
-        short lastPixel = image.getRed(0, 0);
-        for (int y = 0 ; y < height ; y ++) {
-            for (int x = 0 ; x < width ; x ++) {
-                if (running) {
-                    if (x == 0 && y == 0) {
-                        continue;
-                    }
-                    if (image.getRed(x, y) == lastPixel) {
-                        end ++;
-                        continue;
-                    } else {
-                        running = false;
-                    }
-                }
-                if (running == false) {
-                    pixelList.insertBack(lastPixel, lastPixel, lastPixel, end - start + 1);
-                    start = end;
-                    running = true;
-                }
-                lastPixel = image.getRed(x, y);
+
+        // Compare whole packed pixels, a band of rows at a time, so that runs
+        // break on any change of red, green, or blue.
+        RunLengthBuilder builder = new RunLengthBuilder(width, height);
+        int band = Math.min(height, ENCODE_BAND_HEIGHT);
+        byte[] rows = new byte[3 * width * band];
+        for (int y = 0 ; y < height ; y += band) {
+            int count = Math.min(band, height - y);
+            image.copyRowsTo(y, count, rows);
+            for (int r = 0 ; r < count ; r ++) {
+                builder.addRow(rows, 3 * width * r);
             }
         }
-        pixelList.insertBack(lastPixel, lastPixel, lastPixel, end - start + 1);
-        check();
-        System.out.println("Current encoding is: " + toString());
+        runs = builder.finish();
+        validate();
+    }
+
+    /**
+     *  initialValidation() returns the validation policy to start with.
+     *
+     *  @return the policy named by the "rle.validation" system property, or
+     *  FULL if assertions are enabled and OFF otherwise.
+     */
+    private static Validation initialValidation() {
+        String name = System.getProperty("rle.validation");
+        if (name != null) {
+            try {
+                return Validation.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring rle.validation=" + name +
+                                   ":  expected one of " +
+                                   Arrays.toString(Validation.values()) + ".");
+            }
+        }
+
+        boolean assertions = false;
+        assert assertions = true;  // Intentional side effect.
+        return assertions ? Validation.FULL : Validation.OFF;
+    }
+
+    /**
+     *  setValidation() sets how often every RunLengthEncoding is checked
+     *  after a change.
+     *
+     *  @param policy the new validation policy.
+     */
+    public static void setValidation(Validation policy) {
+        validation = policy;
+    }
+
+    /**
+     *  getValidation() returns the current validation policy.
+     *
+     *  @return the validation policy.
+     */
+    public static Validation getValidation() {
+        return validation;
+    }
+
+    /**
+     *  getChangeCount() returns the number of changes (constructions from a
+     *  PixImage or a RunLengthBuilder, and calls to setPixel()) made so far
+     *  by all encodings while the validation policy was not OFF.
+     *
+     *  @return the number of changes.
+     */
+    public static long getChangeCount() {
+        return changeCount.sum();
+    }
+
+    /**
+     *  getValidationCount() returns the number of those changes that were
+     *  followed by a call to check().
+     *
+     *  @return the number of validations.
+     */
+    public static long getValidationCount() {
+        return validationCount.sum();
+    }
+
+    /**
+     *  validate() records a change to this encoding and checks the encoding
+     *  if the validation policy calls for it.
+     */
+    private void validate() {
+        Validation policy = validation;
+        if (policy == Validation.OFF) {
+            return;
+        }
+        changeCount.increment();
+        changes++;
+        if (policy == Validation.FULL || changes % SAMPLE_INTERVAL == 0) {
+            validationCount.increment();
+            check();
+        }
     }
 
     /**
@@ -226,7 +382,9 @@ public class RunLengthEncoding implements Iterable {
             if (currentRunInfo[0] < 1) {
                 System.out.println("Run should be at least 1.");
             }
-            if (lastRunInfo[1] == currentRunInfo[1]) {
+            if (lastRunInfo[1] == currentRunInfo[1] &&
+                    lastRunInfo[2] == currentRunInfo[2] &&
+                    lastRunInfo[3] == currentRunInfo[3]) {
                 System.out.println("Two consecutive runs should have different RGB value");
             }
             totalPixels += currentRunInfo[0];
@@ -256,79 +414,66 @@ public class RunLengthEncoding implements Iterable {
      *  @param blue the new blue intensity to store at coordinate (x, y).
      */
     public void setPixel(int x, int y, short red, short green, short blue) {
-        // System.out.println(toString());
-        int position = x + y * width;
-        int currentPosition = -1;
-        RunLengthListNode currentNode = pixelList.head;
-        // System.out.println(currentNode.prev.toString() + currentNode.toString() + currentNode.next.toString());
-
-        while (currentPosition < position) {
-            currentNode = currentNode.next;
-            currentPosition += currentNode.repeatedNumbers;
+        if (((red | green | blue) & ~0xFF) != 0) {
+            return;
         }
-        // If the value would be set is the same with current value.
-        if (currentNode.redValue == red) return;
 
-        // System.out.println(currentNode.prev.toString() + currentNode.toString() + currentNode.next.toString());
-        currentNode.repeatedNumbers --;
+        runs.setPixel(x + y * width, RunLengthStore.pack(red, green, blue));
+        validate();
+    }
 
-        // Under this condition, I have to check previous too.
-        if (currentNode.repeatedNumbers == 0) {
-            currentNode.prev.next = currentNode.next;
-            currentNode.next.prev = currentNode.prev;
-            currentNode = currentNode.prev;
+    /**
+     *  boxBlur() returns the run-length encoding of the image blurred by
+     *  numIterations iterations of the 3x3 box, the same as
+     *  toPixImage().boxBlur(numIterations) encoded anew, but computed on the
+     *  runs:  only the pixels at run boundaries are blurred one by one, so
+     *  flat images and images with sparse detail are blurred far faster.
+     *  This encoding is not changed.
+     *
+     *  @param numIterations the number of iterations of box blurring.
+     *  @return a blurred version of this encoding.
+     */
+    public RunLengthEncoding boxBlur(int numIterations) {
+        if (numIterations <= 0) {
+            return this;
         }
+        return new RunFilterEngine(this).blur(numIterations);
+    }
 
-        RunLengthListNode newNode = new RunLengthListNode();
-
-        if (position == currentPosition - currentNode.repeatedNumbers) {
-            newNode.next = currentNode;
-            newNode.prev = currentNode.prev;
-            currentNode.prev = newNode;
-        } else if (position == currentPosition) {
-            newNode.prev = currentNode;
-            newNode.next = currentNode.next;
-            currentNode.next = newNode;
-        } else {
-            RunLengthListNode secondNewNode = new RunLengthListNode();
-            secondNewNode.redValue = currentNode.redValue;
-            secondNewNode.greenValue = currentNode.greenValue;
-            secondNewNode.blueValue = currentNode.blueValue;
-            secondNewNode.repeatedNumbers = currentPosition - position;
-            currentNode.repeatedNumbers -= secondNewNode.repeatedNumbers;
-
-            secondNewNode.next = currentNode.next;
-            secondNewNode.prev = newNode;
-            newNode.next = secondNewNode;
-            newNode.prev = currentNode;
-            secondNewNode.next.prev = secondNewNode;
-            currentNode.next = newNode;
-        }
+    /**
+     *  sobelEdges() returns the run-length encoding of the grayscale edge
+     *  image, the same as toPixImage().sobelEdges() encoded anew, but
+     *  computed on the runs (see boxBlur()).
+     *
+     *  @return a grayscale encoding of the edges of this image.
+     */
+    public RunLengthEncoding sobelEdges() {
+        return new RunFilterEngine(this).edges();
+    }
 
-        newNode.redValue = red;
-        newNode.greenValue = green;
-        newNode.blueValue = blue;
-
-        newNode.repeatedNumbers = 1;
-        currentNode = newNode;
-        // System.out.println(currentNode.prev.toString() + currentNode.toString() + currentNode.next.toString());
-        if (currentNode.prev.redValue == currentNode.redValue) {
-            // System.out.println("It's OK here");
-            currentNode.repeatedNumbers += currentNode.prev.repeatedNumbers;
-            currentNode.prev = currentNode.prev.prev;
-            currentNode.prev.next = currentNode;
-        }
 
-        if (currentNode.next.redValue == currentNode.redValue) {
-            currentNode.repeatedNumbers += currentNode.next.repeatedNumbers;
-            currentNode.next = currentNode.next.next;
-            currentNode.next.prev = currentNode;
+    /**
+     *  sobelEdges() (with two parameters) returns the same encoding as
+     *  sobelEdges(), given an earlier frame of an image sequence and that
+     *  frame's edge encoding.  The frames are compared run by run, and only
+     *  the pixels within one pixel of a change are recomputed; the other runs
+     *  are copied from previousEdges.  Comparing and copying take a few
+     *  operations per run (runs that match in both frames are compared and
+     *  copied in bulk), and only the pixels recomputed take the work of
+     *  sobelEdges().
+     *
+     *  @param previous the earlier frame, the same size as this encoding.
+     *  @param previousEdges previous.sobelEdges().
+     *  @return a grayscale encoding of the edges of this image.
+     *  @throws IllegalArgumentException if the encodings differ in size.
+     */
+    public RunLengthEncoding sobelEdges(RunLengthEncoding previous,
+                                        RunLengthEncoding previousEdges) {
+        if (previous.width != width || previous.height != height ||
+            previousEdges.width != width || previousEdges.height != height) {
+            throw new IllegalArgumentException("Frames differ in size.");
         }
-
-        currentNode.next.prev = currentNode;
-        currentNode.prev.next = currentNode;
-        // System.out.println(toString());
-        check();
+        return RunFilterEngine.edges(previous, previousEdges, this);
     }
 
 
@@ -394,10 +539,165 @@ public class RunLengthEncoding implements Iterable {
         rle.check();
     }
 
+    /**
+     * isCompressed() returns true if no two consecutive runs of the given
+     * run-length encoding have the same color, and every run is nonempty.
+     *
+     * @param rle the run-length encoding to examine.
+     * @return true if rle is fully compressed.
+     */
+    private static boolean isCompressed(RunLengthEncoding rle) {
+        int[] last = null;
+        for (RunIterator it = rle.iterator(); it.hasNext(); ) {
+            int[] run = it.next();
+            if (run[0] < 1 || (last != null && last[1] == run[1] &&
+                               last[2] == run[2] && last[3] == run[3])) {
+                return false;
+            }
+            last = run;
+        }
+        return true;
+    }
+
+    /**
+     * randomEdits() applies many random setPixel() calls, drawn from a small
+     * palette so that runs are often split and merged, to a run-length
+     * encoding and to a PixImage, and checks that they stay the same.
+     *
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param edits the number of setPixel() calls.
+     * @return true if the encoding matched the PixImage after every
+     * hundred edits and at the end.
+     */
+    private static boolean randomEdits(int width, int height, int edits) {
+        Random random = new Random(width * height);
+        short[][] palette = new short[][] { { 0, 0, 0 }, { 9, 9, 9 },
+            { 9, 9, 200 }
+        };
+        RunLengthEncoding rle = new RunLengthEncoding(width, height);
+        PixImage image = new PixImage(width, height);
+
+        for (int i = 0; i < edits; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            short[] color = palette[random.nextInt(palette.length)];
+            rle.setPixel(x, y, color[0], color[1], color[2]);
+            image.setPixel(x, y, color[0], color[1], color[2]);
+            if ((i % 100 == 99 || i == edits - 1) &&
+                    !(isCompressed(rle) && rle.toPixImage().equals(image))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * runImage() returns a PixImage whose rows are cut into runs no longer
+     * than maxRun, of colors drawn from a small palette so that runs often
+     * line up with the rows above and below.
+     *
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param maxRun the longest run.
+     * @return a new PixImage.
+     */
+    private static PixImage runImage(int width, int height, int maxRun) {
+        Random random = new Random(width * 1000 + height * 10 + maxRun);
+        short[][] palette = new short[][] { { 0, 0, 0 }, { 255, 255, 255 },
+            { 255, 0, 40 }, { 7, 200, 93 }
+        };
+        PixImage image = new PixImage(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; ) {
+                short[] color = palette[random.nextInt(palette.length)];
+                int end = Math.min(width, x + 1 + random.nextInt(maxRun));
+                for (; x < end; x++) {
+                    image.setPixel(x, y, color[0], color[1], color[2]);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * runFilters() checks that boxBlur() and sobelEdges() on run-length
+     * encodings of runImage() images match the PixImage versions.
+     *
+     * @param width the width of the images.
+     * @param height the height of the images.
+     * @return true if every result matched.
+     */
+    private static boolean runFilters(int width, int height) {
+        int[] maxRuns = new int[] { 1, 4, 50 };
+        for (int i = 0; i < maxRuns.length; i++) {
+            PixImage image = runImage(width, height, maxRuns[i]);
+            RunLengthEncoding rle = new RunLengthEncoding(image);
+            for (int n = 1; n <= 5; n += 2) {
+                RunLengthEncoding blurred = rle.boxBlur(n);
+                if (!blurred.toPixImage().equals(image.boxBlur(n)) ||
+                    !isCompressed(blurred)) {
+                    return false;
+                }
+            }
+            RunLengthEncoding edges = rle.sobelEdges();
+            if (!edges.toPixImage().equals(image.sobelEdges()) ||
+                !isCompressed(edges)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * incrementalFrames() makes a sequence of frames, each differing from the
+     * last in a few small rectangles (sometimes touching the borders, and
+     * sometimes none at all), and checks that the incremental sobelEdges()
+     * of each matches sobelEdges().
+     *
+     * @param width the width of the frames.
+     * @param height the height of the frames.
+     * @param frames the number of frames.
+     * @return true if every frame's edges matched.
+     */
+    private static boolean incrementalFrames(int width, int height,
+                                             int frames) {
+        Random random = new Random(9);
+        PixImage image = runImage(width, height, 8);
+        RunLengthEncoding frame = new RunLengthEncoding(image);
+        RunLengthEncoding edges = frame.sobelEdges();
+        for (int f = 0; f < frames; f++) {
+            int changes = random.nextInt(4);
+            for (int c = 0; c < changes; c++) {
+                int x0 = random.nextInt(width);
+                int y0 = random.nextInt(height);
+                int x1 = Math.min(width, x0 + 1 + random.nextInt(6));
+                int y1 = Math.min(height, y0 + 1 + random.nextInt(6));
+                short value = (short) random.nextInt(256);
+                for (int x = x0; x < x1; x++) {
+                    for (int y = y0; y < y1; y++) {
+                        image.setPixel(x, y, value, value, (short) 0);
+                    }
+                }
+            }
+            RunLengthEncoding next = new RunLengthEncoding(image);
+            RunLengthEncoding nextEdges = next.sobelEdges(frame, edges);
+            if (!nextEdges.toPixImage().equals(image.sobelEdges()) ||
+                !isCompressed(nextEdges)) {
+                return false;
+            }
+            frame = next;
+            edges = nextEdges;
+        }
+        return true;
+    }
+
     /**
      * main() runs a series of tests of the run-length encoding code.
      */
     public static void main(String[] args) {
+        setValidation(Validation.FULL);
+
         // Be forwarned that when you write arrays directly in Java as below,
         // each "row" of text is a column of your image--the numbers get
         // transposed.
@@ -572,5 +872,94 @@ public class RunLengthEncoding implements Iterable {
         image4.setPixel(1, 0, (short) 1, (short) 1, (short) 1);
         doTest(rle4.toPixImage().equals(image4),
                "Setting RLE4[1][0] = 1 fails.");
+
+        System.out.println("Testing one-parameter RunLengthEncoding " +
+                           "constructor on colors that differ only in green " +
+                           "or blue.");
+        PixImage image5 = new PixImage(4, 2);
+        image5.setPixel(1, 0, (short) 0, (short) 7, (short) 0);
+        image5.setPixel(2, 0, (short) 0, (short) 7, (short) 0);
+        image5.setPixel(3, 0, (short) 0, (short) 7, (short) 9);
+        image5.setPixel(0, 1, (short) 0, (short) 7, (short) 9);
+        RunLengthEncoding rle6 = new RunLengthEncoding(image5);
+        doTest(rle6.toPixImage().equals(image5) && isCompressed(rle6),
+               "Colors differing only in green or blue do not round-trip.");
+        int[] runLengths = new int[] { 1, 2, 2, 3 };
+        int r = 0;
+        for (RunIterator it = rle6.iterator(); it.hasNext(); r++) {
+            int[] run = it.next();
+            doTest(r < runLengths.length && run[0] == runLengths[r],
+                   "Run " + r + " of a color image has the wrong length.");
+        }
+        doTest(r == runLengths.length,
+               "A color image encodes into " + r + " runs, not 4.");
+
+        System.out.println("Testing one-parameter RunLengthEncoding " +
+                           "constructor on 50x70 images in both storages.");
+        for (PixImage.Storage storage : PixImage.Storage.values()) {
+            Random random = new Random(5);
+            PixImage image6 = new PixImage(50, 70, storage);
+            for (int y = 0; y < 70; y++) {
+                for (int x = 0; x < 50; x++) {
+                    if (random.nextInt(4) == 0) {
+                        image6.setPixel(x, y, (short) random.nextInt(2),
+                                        (short) random.nextInt(2),
+                                        (short) random.nextInt(2));
+                    }
+                }
+            }
+            RunLengthEncoding rle7 = new RunLengthEncoding(image6);
+            doTest(rle7.toPixImage().equals(image6) && isCompressed(rle7),
+                   "A 50x70 " + storage + " image does not round-trip.");
+        }
+
+        System.out.println("Testing random setPixel() calls on a 40x40 " +
+                           "and a 300x200 encoding.");
+        doTest(randomEdits(40, 40, 20000),
+               "Random setPixel() calls on a 40x40 encoding fail.");
+        doTest(randomEdits(300, 200, 20000),
+               "Random setPixel() calls on a 300x200 encoding fail.");
+
+        System.out.println("Testing boxBlur() and sobelEdges() on " +
+                           "encodings of several sizes.");
+        int[][] sizes = new int[][] { { 1, 1 }, { 1, 5 }, { 5, 1 }, { 2, 2 },
+            { 3, 7 }, { 40, 30 }, { 97, 61 }
+        };
+        for (int i = 0; i < sizes.length; i++) {
+            doTest(runFilters(sizes[i][0], sizes[i][1]),
+                   "boxBlur() or sobelEdges() on a " + sizes[i][0] + "x" +
+                   sizes[i][1] + " encoding does not match PixImage.");
+        }
+
+        System.out.println("Testing incremental sobelEdges() on a sequence " +
+                           "of 97x61 frames.");
+        doTest(incrementalFrames(97, 61, 20),
+               "Incremental sobelEdges() on RLE frames does not match " +
+               "sobelEdges().");
+
+        System.out.println("Testing validation policies and counters.");
+        RunLengthEncoding rle5 = new RunLengthEncoding(100, 100);
+        long changes = getChangeCount();
+        long validations = getValidationCount();
+        setValidation(Validation.OFF);
+        for (int i = 0; i < 3 * SAMPLE_INTERVAL; i++) {
+            rle5.setPixel(i % 100, i / 100 % 100, (short) (i % 7), (short) 0,
+                          (short) 0);
+        }
+        doTest(getChangeCount() == changes &&
+               getValidationCount() == validations,
+               "Validation policy OFF still counts or validates changes.");
+        setValidation(Validation.SAMPLED);
+        for (int i = 0; i < 3 * SAMPLE_INTERVAL; i++) {
+            rle5.setPixel(i % 100, i / 100 % 100, (short) (i % 5), (short) 0,
+                          (short) 0);
+        }
+        doTest(getValidationCount() == validations + 3,
+               "Validation policy SAMPLED validates " +
+               (getValidationCount() - validations) + " times, not 3.");
+        setValidation(Validation.FULL);
+        rle5.setPixel(0, 0, (short) 1, (short) 2, (short) 3);
+        doTest(getValidationCount() == validations + 4,
+               "Validation policy FULL does not validate every change.");
     }
 }
@@ -0,0 +1,372 @@
+/* RunLengthStore.java */
+
+/**
+ *  A RunLengthStore is the sequence of runs of a RunLengthEncoding, kept in
+ *  primitive arrays instead of one object per run.  The runs are divided
+ *  into RunLengthChunks of up to RunLengthChunk.CAPACITY runs each, so that
+ *  inserting or removing a run shifts at most one chunk's arrays.
+ *
+ *  A Fenwick tree over the chunks' pixel totals serves as a positional index:
+ *  the chunk holding a given pixel is found in O(log chunks) steps, and the
+ *  run within the chunk by binary search, so setPixel() never walks the runs
+ *  from the start.  Changing a run's length updates the tree in O(log
+ *  chunks) steps.  Adding or removing a chunk (once every CAPACITY / 2
+ *  insertions at most) marks the tree stale, and it is rebuilt in linear
+ *  time by the next search.
+ *
+ *  Colors are packed as 0xRRGGBB, so two runs have the same color exactly
+ *  when their packed colors are equal.
+ */
+
+class RunLengthStore {
+
+    /**
+     *  chunks[0...chunkCount - 1] hold the runs in order.  No chunk in use is
+     *  empty.
+     */
+    private RunLengthChunk[] chunks = new RunLengthChunk[4];
+    private int chunkCount;
+    private int runCount;
+
+    /**
+     *  fenwick[k], for k in 1...chunkCount, is the total number of pixels in
+     *  chunks k - (k & -k)...k - 1.  It is only meaningful when fenwickStale
+     *  is false.
+     */
+    private int[] fenwick = new int[1];
+    private boolean fenwickStale = true;
+
+    /**
+     *  locate() and insert() leave the position of the run they found or
+     *  inserted in foundChunk and foundIndex.  locate() also leaves the
+     *  index of the first pixel of that run in foundStart.
+     */
+    private int foundChunk;
+    private int foundIndex;
+    private int foundStart;
+
+    /**
+     *  pack() packs a color into a single int.
+     *
+     *  @param red the red intensity, in 0...255.
+     *  @param green the green intensity, in 0...255.
+     *  @param blue the blue intensity, in 0...255.
+     *  @return the color as 0xRRGGBB.
+     */
+    static int pack(int red, int green, int blue) {
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     *  red(), green(), and blue() unpack one intensity of a packed color.
+     */
+    static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    /**
+     *  runCount() returns the number of runs in the store.
+     *
+     *  @return the number of runs.
+     */
+    int runCount() {
+        return runCount;
+    }
+
+    /**
+     *  chunkCount() returns the number of chunks in use.  chunk(c) returns
+     *  chunk c, for c in 0...chunkCount() - 1.  Callers may read the chunks'
+     *  arrays but must not change them.
+     */
+    int chunkCount() {
+        return chunkCount;
+    }
+
+    RunLengthChunk chunk(int c) {
+        return chunks[c];
+    }
+
+    /**
+     *  append() adds a run after the last run.  It does not merge the new run
+     *  with the last one, even if they have the same color.
+     *
+     *  @param color the packed color of the run.
+     *  @param length the number of pixels in the run.
+     */
+    void append(int color, int length) {
+        if (chunkCount == 0 || chunks[chunkCount - 1].isFull()) {
+            addChunk(chunkCount, new RunLengthChunk());
+        }
+        int c = chunkCount - 1;
+        insert(c, chunks[c].size, color, length);
+    }
+
+    /**
+     *  append() (with four parameters) adds the runs at indices from...to - 1
+     *  of colors[] and lengths[] after the last run, a chunk at a time.  Like
+     *  append() with two parameters, it does not merge runs.
+     *
+     *  @param colors the packed colors of the runs.
+     *  @param lengths the lengths of the runs.
+     *  @param from the index of the first run to add.
+     *  @param to one past the index of the last run to add.
+     */
+    void append(int[] colors, int[] lengths, int from, int to) {
+        while (from < to) {
+            if (chunkCount == 0 || chunks[chunkCount - 1].isFull()) {
+                addChunk(chunkCount, new RunLengthChunk());
+            }
+            RunLengthChunk chunk = chunks[chunkCount - 1];
+            int count = Math.min(to - from,
+                                 RunLengthChunk.CAPACITY - chunk.size);
+            chunk.append(colors, lengths, from, count);
+            runCount += count;
+            fenwickStale = true;
+            from += count;
+        }
+    }
+
+    /**
+     *  setPixel() changes the color of the pixel at the given position (in
+     *  row-major order), splitting the run that contains it and merging the
+     *  result with its neighbors, so that the change never leaves two
+     *  consecutive runs of the same color.
+     *
+     *  @param position the index of the pixel, in 0...width * height - 1.
+     *  @param color the new packed color of the pixel.
+     */
+    void setPixel(int position, int color) {
+        locate(position);
+        int c = foundChunk;
+        int i = foundIndex;
+        int start = foundStart;
+
+        RunLengthChunk chunk = chunks[c];
+        int oldColor = chunk.colors[i];
+        if (oldColor == color) {
+            return;
+        }
+        int length = chunk.lengths[i];
+
+        // Find the neighboring runs that the changed pixel will join, if any.
+        int pc = -1;
+        int pi = -1;
+        if (position == start) {
+            if (i > 0) {
+                pc = c;
+                pi = i - 1;
+            } else if (c > 0) {
+                pc = c - 1;
+                pi = chunks[pc].size - 1;
+            }
+            if (pc >= 0 && chunks[pc].colors[pi] != color) {
+                pc = -1;
+            }
+        }
+        int nc = -1;
+        int ni = -1;
+        if (position == start + length - 1) {
+            if (i + 1 < chunk.size) {
+                nc = c;
+                ni = i + 1;
+            } else if (c + 1 < chunkCount) {
+                nc = c + 1;
+                ni = 0;
+            }
+            if (nc >= 0 && chunks[nc].colors[ni] != color) {
+                nc = -1;
+            }
+        }
+
+        if (length == 1) {
+            if (pc >= 0 && nc >= 0) {
+                addLength(pc, pi, 1 + chunks[nc].lengths[ni]);
+                remove(nc, ni);
+                remove(c, i);
+            } else if (pc >= 0) {
+                addLength(pc, pi, 1);
+                remove(c, i);
+            } else if (nc >= 0) {
+                addLength(nc, ni, 1);
+                remove(c, i);
+            } else {
+                chunk.colors[i] = color;
+            }
+        } else if (position == start) {
+            addLength(c, i, -1);
+            if (pc >= 0) {
+                addLength(pc, pi, 1);
+            } else {
+                insert(c, i, color, 1);
+            }
+        } else if (position == start + length - 1) {
+            addLength(c, i, -1);
+            if (nc >= 0) {
+                addLength(nc, ni, 1);
+            } else {
+                insert(c, i + 1, color, 1);
+            }
+        } else {
+            // Split the run in three.
+            int tail = start + length - 1 - position;
+            addLength(c, i, position - start - length);
+            insert(c, i + 1, color, 1);
+            insert(foundChunk, foundIndex + 1, oldColor, tail);
+        }
+    }
+
+    /**
+     *  locate() finds the run containing the pixel at the given position and
+     *  leaves its chunk, index, and first pixel in foundChunk, foundIndex,
+     *  and foundStart.
+     *
+     *  @param position the index of a pixel in the image.
+     */
+    void locate(int position) {
+        if (fenwickStale) {
+            rebuildFenwick();
+        }
+
+        // Descend the Fenwick tree to count the chunks that end at or before
+        // position; the pixel lies in the next chunk.
+        int c = 0;
+        int start = 0;
+        for (int step = Integer.highestOneBit(chunkCount) ; step > 0 ;
+             step >>= 1) {
+            int next = c + step;
+            if (next <= chunkCount && start + fenwick[next] <= position) {
+                c = next;
+                start += fenwick[next];
+            }
+        }
+
+        RunLengthChunk chunk = chunks[c];
+        int i = chunk.find(position - start);
+
+        foundChunk = c;
+        foundIndex = i;
+        foundStart = start + (i == 0 ? 0 : chunk.ends[i - 1]);
+    }
+
+    /**
+     *  foundChunk(), foundIndex(), and foundStart() return the chunk, index,
+     *  and first pixel of the run that the last call to locate() found.
+     */
+    int foundChunk() {
+        return foundChunk;
+    }
+
+    int foundIndex() {
+        return foundIndex;
+    }
+
+    int foundStart() {
+        return foundStart;
+    }
+
+    /**
+     *  rebuildFenwick() recomputes the Fenwick tree from the chunks' pixel
+     *  totals in linear time.
+     */
+    private void rebuildFenwick() {
+        if (fenwick.length < chunkCount + 1) {
+            fenwick = new int[chunks.length + 1];
+        }
+        for (int k = 1 ; k <= chunkCount ; k ++) {
+            fenwick[k] = chunks[k - 1].pixels();
+        }
+        for (int k = 1 ; k <= chunkCount ; k ++) {
+            int parent = k + (k & -k);
+            if (parent <= chunkCount) {
+                fenwick[parent] += fenwick[k];
+            }
+        }
+        fenwickStale = false;
+    }
+
+    /**
+     *  addLength() adds delta to the length of run i of chunk c.
+     */
+    private void addLength(int c, int i, int delta) {
+        chunks[c].addLength(i, delta);
+        if (!fenwickStale) {
+            for (int k = c + 1 ; k <= chunkCount ; k += k & -k) {
+                fenwick[k] += delta;
+            }
+        }
+    }
+
+    /**
+     *  insert() inserts a run at index i of chunk c, splitting the chunk first
+     *  if it is full, and leaves the new run's position in foundChunk and
+     *  foundIndex.
+     *
+     *  @param c the chunk.
+     *  @param i the index of the new run, in 0...chunks[c].size.
+     *  @param color the packed color of the run.
+     *  @param length the number of pixels in the run.
+     */
+    private void insert(int c, int i, int color, int length) {
+        if (chunks[c].isFull()) {
+            addChunk(c + 1, chunks[c].splitOff());
+            if (i > chunks[c].size) {
+                i -= chunks[c].size;
+                c ++;
+            }
+        }
+
+        chunks[c].insert(i, color, length);
+        runCount ++;
+        if (!fenwickStale) {
+            for (int k = c + 1 ; k <= chunkCount ; k += k & -k) {
+                fenwick[k] += length;
+            }
+        }
+        foundChunk = c;
+        foundIndex = i;
+    }
+
+    /**
+     *  remove() removes run i of chunk c, and the chunk too if it becomes
+     *  empty.
+     */
+    private void remove(int c, int i) {
+        int length = chunks[c].lengths[i];
+        chunks[c].remove(i);
+        runCount --;
+        if (!fenwickStale) {
+            for (int k = c + 1 ; k <= chunkCount ; k += k & -k) {
+                fenwick[k] -= length;
+            }
+        }
+        if (chunks[c].size == 0) {
+            System.arraycopy(chunks, c + 1, chunks, c, chunkCount - c - 1);
+            chunkCount --;
+            chunks[chunkCount] = null;
+            fenwickStale = true;
+        }
+    }
+
+    /**
+     *  addChunk() inserts a chunk at index c of the chunk array.
+     */
+    private void addChunk(int c, RunLengthChunk chunk) {
+        if (chunkCount == chunks.length) {
+            RunLengthChunk[] larger = new RunLengthChunk[2 * chunks.length];
+            System.arraycopy(chunks, 0, larger, 0, chunkCount);
+            chunks = larger;
+        }
+        System.arraycopy(chunks, c, chunks, c + 1, chunkCount - c);
+        chunks[c] = chunk;
+        chunkCount ++;
+        fenwickStale = true;
+    }
+}
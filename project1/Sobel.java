@@ -35,9 +35,24 @@
  *  to edge_engine.tiff, and write a run-length encoded grayscale-edge image to
  *  rle_engine.tiff.
  *
+ *  The parameters may be preceded by "-threads n" to blur and detect edges
+ *  with n threads.  (The default is one thread per available processor.)
+ *
+ *  With "-batch", the first parameter is instead a directory (every TIFF
+ *  file in it is processed) or "@" followed by a file listing one image per
+ *  line.  The images are read, filtered, and written by a BatchPipeline, one
+ *  image per thread, and nothing is displayed.  Each output is written next
+ *  to its input.
+ *
  *  @author Joel Galenson and Jonathan Shewchuk
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class Sobel {
   
   /**
@@ -50,33 +65,34 @@ public class Sobel {
    *  @param filename the name of the input TIFF image file.
    *  @param numIterations the number of iterations of blurring to perform.
    *  @param rle true if the output TIFF file should be run-length encoded.
+   *  @param parallelism the number of threads to blur and detect edges with.
    */
   private static void sobelFile(String filename, int numIterations,
-                                boolean rle) {
+                                boolean rle, int parallelism) {
     System.out.println("Reading image file " + filename);
     PixImage image = ImageUtils.readTIFFPix(filename);
     PixImage blurred = image;
 
     if (numIterations > 0) {
       System.out.println("Blurring image file.");
-      blurred = image.boxBlur(numIterations);
+      blurred = image.boxBlur(numIterations, parallelism);
 
       String blurname = "blur_" + filename;
       System.out.println("Writing blurred image file " + blurname);
-      TIFFEncoder.writeTIFF(blurred, blurname);
+      TIFFWriter.writeTIFF(blurred, blurname);
     }
 
     System.out.println("Performing Sobel edge detection on image file.");
-    PixImage sobeled = blurred.sobelEdges();
+    PixImage sobeled = blurred.sobelEdges(parallelism);
 
     String edgename = "edge_" + filename;
     System.out.println("Writing grayscale-edge image file " + edgename);
-    TIFFEncoder.writeTIFF(sobeled, edgename);
+    TIFFWriter.writeTIFF(sobeled, edgename);
     if (rle) {
       String rlename = "rle_" + filename;
       System.out.println("Writing run-length encoded grayscale-edge " +
                          "image file " + rlename);
-      TIFFEncoder.writeTIFF(new RunLengthEncoding(sobeled), rlename);
+      TIFFWriter.writeTIFF(new RunLengthEncoding(sobeled), rlename);
     }
 
     if (numIterations > 0) {
@@ -91,24 +107,88 @@ public class Sobel {
     }
   }
 
+  /**
+   *  sobelBatch() performs the work of sobelFile() on many TIFF image files,
+   *  writing each output next to its input, without displaying anything.  It
+   *  prints the throughput of the read, filter, and write stages when it is
+   *  done.
+   *
+   *  @param files the input TIFF image files.
+   *  @param numIterations the number of iterations of blurring to perform.
+   *  @param rle true if a run-length encoded output should also be written.
+   *  @param parallelism the number of images to process at once.
+   */
+  private static void sobelBatch(List<File> files, final int numIterations,
+                                 final boolean rle, int parallelism)
+      throws InterruptedException {
+    System.out.println("Performing Sobel edge detection on " + files.size() +
+                       " image files.");
+    BatchPipeline pipeline = new BatchPipeline(new BatchPipeline.Filter() {
+      public BatchPipeline.Output[] filter(PixImage image, File file) {
+        List<BatchPipeline.Output> outputs =
+            new ArrayList<BatchPipeline.Output>();
+        PixImage blurred = image;
+        if (numIterations > 0) {
+          blurred = image.boxBlur(numIterations, 1);
+          outputs.add(new BatchPipeline.Output(
+              BatchPipeline.prefixed(file, "blur_"), blurred));
+        }
+        PixImage sobeled = blurred.sobelEdges(1);
+        outputs.add(new BatchPipeline.Output(
+            BatchPipeline.prefixed(file, "edge_"), sobeled));
+        if (rle) {
+          outputs.add(new BatchPipeline.Output(
+              BatchPipeline.prefixed(file, "rle_"),
+              new RunLengthEncoding(sobeled)));
+        }
+        return outputs.toArray(new BatchPipeline.Output[outputs.size()]);
+      }
+    }, parallelism);
+    pipeline.run(files);
+  }
+
   /**
    *  main() reads the command-line arguments and initiates the blurring.
    *
-   *  The first command-line argument is the name of the image file.
+   *  An optional "-threads n" pair of arguments sets the number of threads.
+   *  An optional "-batch" argument selects batch mode.
+   *  The next command-line argument is the name of the image file (or, in
+   *  batch mode, the directory or "@" list file).
    *  An optional second argument is number of iterations of blurring.
    *  An optional third argument triggers the writing of a run-length encoded
    *  grayscale-edge image.
    *
    *  @param args the usual array of command-line argument Strings.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException,
+                                                InterruptedException {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (args.length >= 2 && args[0].equals("-threads")) {
+      try {
+        parallelism = Integer.parseInt(args[1]);
+      } catch (NumberFormatException ex) {
+        System.err.println("The number of threads must be a number.");
+        System.exit(1);
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    boolean batch = args.length >= 1 && args[0].equals("-batch");
+    if (batch) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     if (args.length == 0) {
-      System.out.println("usage:  java Sobel imagefile [iterations] [RLE]");
+      System.out.println("usage:  java Sobel [-threads n] [-batch] imagefile " +
+                         "[iterations] [RLE]");
+      System.out.println("  n is the number of threads (default: one per " +
+                         "processor).");
       System.out.println("  imagefile is an image in TIFF format.");
       System.out.println("  interations is the number of blurring iterations" +
                          " (default 0).");
       System.out.println("  any third argument (RLE) turns on run-length " +
                          "encoding in the output file");
+      System.out.println("  -batch makes imagefile a directory of TIFF " +
+                         "files, or @listfile.");
       System.out.println("The grayscale-edge image is written to " +
                          "edge_imagefile.");
       System.out.println("If blurring is selected, " +
@@ -126,6 +206,11 @@ public class Sobel {
       }
     }
 
-    sobelFile(args[0], numIterations, args.length >= 3);
+    if (batch) {
+      sobelBatch(BatchPipeline.inputFiles(args[0]), numIterations,
+                 args.length >= 3, parallelism);
+    } else {
+      sobelFile(args[0], numIterations, args.length >= 3, parallelism);
+    }
   }
 }
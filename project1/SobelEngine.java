@@ -0,0 +1,274 @@
+/* SobelEngine.java */
+
+/**
+ *  The SobelEngine class performs Sobel edge detection for PixImage.
+ *
+ *  The image is streamed one row at a time through a window of three rows,
+ *  each holding the interleaved red, green, and blue intensities of one row
+ *  with one reflected pixel of padding at each end.  Rows above the top and
+ *  below the bottom are reflected by choosing which row to load, and columns
+ *  beyond the left and right edges by the padding, so the inner loop has no
+ *  bounds tests.  All three colors are computed in the same pass, and nothing
+ *  is allocated per pixel.
+ *
+ *  Energies are mapped to intensities with PixImage.mag2grayTable(), which
+ *  avoids computing a logarithm per pixel.  The output is identical to the
+ *  definition in PixImage.getEnergy() followed by PixImage.mag2gray().
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+class SobelEngine {
+
+    private final PixImage image;
+    private final int width;
+    private final int height;
+
+    /**
+     *  grayTable is true if energies are mapped with mag2grayTable(), and
+     *  false if they are mapped with mag2gray().  Only benchmarks set it to
+     *  false.
+     */
+    private boolean grayTable = true;
+
+    /**
+     *  SobelEngine() constructs an engine that detects the edges of image.
+     *
+     *  @param image the image to examine.  It must not change while the
+     *  engine is in use.
+     */
+    SobelEngine(PixImage image) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    /**
+     *  setGrayTable() chooses between mag2grayTable() (true, the default) and
+     *  mag2gray() (false) for mapping energies to intensities.  Both give the
+     *  same output; the choice exists so that the two can be timed.
+     *
+     *  @param grayTable true to use the lookup table.
+     */
+    void setGrayTable(boolean grayTable) {
+        this.grayTable = grayTable;
+    }
+
+    /**
+     *  edges() returns a new grayscale PixImage whose intensities reflect the
+     *  strength of the edges in the image.
+     *
+     *  @param pool the pool to run on, or null to run on this thread.
+     *  @return the grayscale edge image.
+     */
+    PixImage edges(ForkJoinPool pool) {
+        final PixImage result = new PixImage(width, height, image.getStorage());
+        RowBands.run(pool, height, new RowBands.Body() {
+            public void rows(int y0, int y1) {
+                edgeRows(result, y0, y1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     *  update() returns the edge image of this engine's image, given an
+     *  earlier frame of the same size and that frame's edge image.  The
+     *  frames are compared row by row with bulk copies; in each row that
+     *  changed, the span from the first to the last changed pixel, widened
+     *  by one pixel, is recomputed in that row and the rows above and below
+     *  (the pixels whose 3x3 neighborhoods include a change).  Every other
+     *  pixel is copied from the earlier edge image.
+     *
+     *  @param previous the earlier frame.
+     *  @param previousEdges the edge image of the earlier frame.
+     *  @return the edge image of this engine's image.
+     */
+    PixImage update(PixImage previous, PixImage previousEdges) {
+        int[] lo = new int[height];
+        int[] hi = new int[height];
+        Arrays.fill(lo, width);
+        Arrays.fill(hi, -1);
+
+        byte[] before = new byte[3 * width];
+        byte[] after = new byte[3 * width];
+        PixImage result = new PixImage(width, height, image.getStorage());
+        for (int y = 0 ; y < height ; y ++) {
+            previousEdges.copyRowTo(y, before, 0);
+            result.copyRowFrom(y, before, 0);
+
+            previous.copyRowTo(y, before, 0);
+            image.copyRowTo(y, after, 0);
+            if (Arrays.equals(before, after)) {
+                continue;
+            }
+            int first = 0;
+            while (before[first] == after[first]) {
+                first ++;
+            }
+            int last = before.length - 1;
+            while (before[last] == after[last]) {
+                last --;
+            }
+            int x0 = Math.max(first / 3 - 1, 0);
+            int x1 = Math.min(last / 3 + 1, width - 1);
+            for (int r = Math.max(y - 1, 0) ; r <= Math.min(y + 1, height - 1) ;
+                 r ++) {
+                lo[r] = Math.min(lo[r], x0);
+                hi[r] = Math.max(hi[r], x1);
+            }
+        }
+
+        edgeSpans(result, lo, hi);
+        return result;
+    }
+
+    /**
+     *  edgeRows() writes rows y0...y1 - 1 of the edge image into result.
+     *  Disjoint row ranges may be processed concurrently.
+     *
+     *  @param result the edge image being computed.
+     *  @param y0 the first row to write.
+     *  @param y1 one past the last row to write.
+     */
+    void edgeRows(PixImage result, int y0, int y1) {
+        int stride = 3 * (width + 2);
+        byte[] bytes = new byte[3 * width];
+        int[] above = new int[stride];
+        int[] middle = new int[stride];
+        int[] below = new int[stride];
+        byte[] out = new byte[3 * width];
+
+        loadRow(reflectY(y0 - 1), bytes, above);
+        loadRow(y0, bytes, middle);
+
+        for (int y = y0 ; y < y1 ; y ++) {
+            loadRow(reflectY(y + 1), bytes, below);
+
+            for (int x = 0, i = 3 ; x < width ; x ++, i += 3) {
+                byte grey = gray(above, middle, below, i);
+                out[i - 3] = grey;
+                out[i - 2] = grey;
+                out[i - 1] = grey;
+            }
+            result.copyRowFrom(y, out, 0);
+
+            int[] temp = above;
+            above = middle;
+            middle = below;
+            below = temp;
+        }
+    }
+
+    /**
+     *  gray() returns the edge intensity of the pixel whose red intensity is
+     *  at index i of the middle row of a window.
+     *
+     *  @param above the row above, as loaded by loadRow().
+     *  @param middle the pixel's row.
+     *  @param below the row below.
+     *  @param i the index of the pixel's red intensity, 3 * (x + 1).
+     *  @return the gray intensity of the pixel's edge.
+     */
+    private byte gray(int[] above, int[] middle, int[] below, int i) {
+        int energy = 0;
+        for (int c = i ; c < i + 3 ; c ++) {
+            int left = above[c - 3] + 2 * middle[c - 3] + below[c - 3];
+            int right = above[c + 3] + 2 * middle[c + 3] + below[c + 3];
+            int top = above[c - 3] + 2 * above[c] + above[c + 3];
+            int bottom = below[c - 3] + 2 * below[c] + below[c + 3];
+            int gx = left - right;
+            int gy = top - bottom;
+            energy += gx * gx + gy * gy;
+        }
+        return (byte) (grayTable ? PixImage.mag2grayTable(energy)
+                                 : PixImage.mag2gray(energy));
+    }
+
+    /**
+     *  edgeSpans() recomputes part of an edge image:  columns lo[y]...hi[y]
+     *  of each row y for which lo[y] <= hi[y].  Only those pixels and their
+     *  neighbors are read, so the cost is proportional to the number of
+     *  pixels recomputed, not to the size of the image.
+     *
+     *  @param result the edge image to update.
+     *  @param lo the first column to recompute in each row.
+     *  @param hi the last column to recompute in each row.
+     */
+    void edgeSpans(PixImage result, int[] lo, int[] hi) {
+        int stride = 3 * (width + 2);
+        int[] above = new int[stride];
+        int[] middle = new int[stride];
+        int[] below = new int[stride];
+
+        for (int y = 0 ; y < height ; y ++) {
+            if (lo[y] > hi[y]) {
+                continue;
+            }
+            loadSpan(reflectY(y - 1), lo[y], hi[y], above);
+            loadSpan(y, lo[y], hi[y], middle);
+            loadSpan(reflectY(y + 1), lo[y], hi[y], below);
+            for (int x = lo[y] ; x <= hi[y] ; x ++) {
+                short grey = (short) (gray(above, middle, below, 3 * (x + 1)) &
+                                      0xFF);
+                result.setPixel(x, y, grey, grey, grey);
+            }
+        }
+    }
+
+    /**
+     *  loadSpan() reads columns x0 - 1...x1 + 1 of row y of the image into
+     *  row, laid out as loadRow() does (reflecting beyond the left and right
+     *  edges).  The rest of row is left as it was.
+     *
+     *  @param y the row to read.
+     *  @param x0 the first column needed.
+     *  @param x1 the last column needed.
+     *  @param row receives the intensities.
+     */
+    private void loadSpan(int y, int x0, int x1, int[] row) {
+        for (int x = x0 - 1 ; x <= x1 + 1 ; x ++) {
+            int source = Math.max(0, Math.min(width - 1, x));
+            int i = 3 * (x + 1);
+            row[i] = image.getRed(source, y);
+            row[i + 1] = image.getGreen(source, y);
+            row[i + 2] = image.getBlue(source, y);
+        }
+    }
+
+    /**
+     *  reflectY() maps the rows just above and below the image onto the top
+     *  and bottom rows.
+     *
+     *  @param y a row in the range -1...height.
+     *  @return the row to read in its place.
+     */
+    private int reflectY(int y) {
+        if (y < 0) return 0;
+        if (y >= height) return height - 1;
+        return y;
+    }
+
+    /**
+     *  loadRow() reads row y of the image into row, as interleaved red, green,
+     *  blue intensities starting at index 3, with a copy of the first pixel in
+     *  indices 0...2 and a copy of the last pixel after the end.
+     *
+     *  @param y the row to read.
+     *  @param bytes scratch space for 3 * width bytes.
+     *  @param row receives 3 * (width + 2) intensities.
+     */
+    private void loadRow(int y, byte[] bytes, int[] row) {
+        image.copyRowTo(y, bytes, 0);
+        for (int i = 0 ; i < bytes.length ; i ++) {
+            row[i + 3] = bytes[i] & 0xFF;
+        }
+
+        int last = 3 * width;
+        for (int c = 0 ; c < 3 ; c ++) {
+            row[c] = row[c + 3];
+            row[last + 3 + c] = row[last + c];
+        }
+    }
+}
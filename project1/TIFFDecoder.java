@@ -0,0 +1,554 @@
+/* TIFFDecoder.java */
+
+/**
+ *  The TIFFDecoder class reads a TIFF file one row at a time, without the JAI
+ *  library and without holding more than one row of the image in memory.
+ *  It reads the baseline subset of TIFF that TIFFEncoder writes:  8-bit
+ *  samples, RGB or grayscale, uncompressed or PackBits-compressed, in any
+ *  number of strips, in either byte order.  It also reads RGB images whose
+ *  samples are stored in separate red, green, and blue planes
+ *  (PlanarConfiguration 2), as TIFFWriter writes them in planar mode; the
+ *  three planes are read side by side, one row of each at a time.  Alpha
+ *  samples, as JAI writes them, are ignored unless they are premultiplied.
+ *
+ *  The file is memory-mapped, so rows are decoded straight from the page
+ *  cache, with no read() calls and no intermediate buffers.
+ *
+ *  See Sections 2, 8 and 9 of the TIFF spec (TIFF6.pdf) for details.
+ *
+ *  @see TIFFEncoder
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class TIFFDecoder {
+
+  /**
+   * An UnsupportedFormatException is thrown when a file is a TIFF file that
+   * uses features TIFFDecoder cannot read, or is not a TIFF file at all.
+   */
+  public static class UnsupportedFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedFormatException(String message) {
+      super(message);
+    }
+  }
+
+  // TIFF field tags.  See Section 8 of the TIFF spec.
+  private static final int IMAGE_WIDTH = 256;
+  private static final int IMAGE_LENGTH = 257;
+  private static final int BITS_PER_SAMPLE = 258;
+  private static final int COMPRESSION = 259;
+  private static final int PHOTOMETRIC = 262;
+  private static final int STRIP_OFFSETS = 273;
+  private static final int SAMPLES_PER_PIXEL = 277;
+  private static final int ROWS_PER_STRIP = 278;
+  private static final int STRIP_BYTE_COUNTS = 279;
+  private static final int PLANAR_CONFIGURATION = 284;
+  private static final int EXTRA_SAMPLES = 338;
+
+  // The ExtraSamples value for premultiplied alpha.
+  private static final int ASSOCIATED_ALPHA = 1;
+
+  // Field types.
+  private static final int BYTE = 1;
+  private static final int SHORT = 3;
+  private static final int LONG = 4;
+
+  // Compression schemes.
+  private static final int NO_COMPRESSION = 1;
+  private static final int PACKBITS = 32773;
+
+  // The number of rows readPixImage() decodes between copies into the
+  // PixImage.
+  private static final int BAND_HEIGHT = 16;
+
+  // GRAY_TO_RGB[s] is the intensity that java.awt gives gray sample s when
+  // it converts a grayscale image to RGB.  Gray samples are mapped through
+  // it so that readRow() agrees with ImageUtils.readTIFFPix().
+  private static final byte[] GRAY_TO_RGB = new byte[256];
+
+  static {
+    BufferedImage gray = new BufferedImage(256, 1,
+                                           BufferedImage.TYPE_BYTE_GRAY);
+    for (int s = 0; s < 256; s++) {
+      gray.getRaster().setSample(s, 0, 0, s);
+    }
+    for (int s = 0; s < 256; s++) {
+      GRAY_TO_RGB[s] = (byte) gray.getRGB(s, 0);
+    }
+  }
+
+  // The whole file, mapped into memory.
+  private ByteBuffer data;
+  private ByteOrder order;
+
+  private int width;
+  private int height;
+  private int samplesPerPixel;
+  private boolean whiteIsZero;
+  private boolean packBits;
+  private int rowsPerStrip;
+  private int stripsPerPlane;
+  private long[] stripOffsets;
+
+  // The state of the row stream.  planes has one reader for chunky data,
+  // and one per sample for planar data.  samples[p] receives one row of
+  // plane p.
+  private int nextRow;
+  private StripReader[] planes;
+  private byte[][] samples;
+
+  /**
+   * A StripReader reads the strips of one plane through a view of the
+   * mapped file of its own, so that several StripReaders can read side by
+   * side.  It keeps the state of the PackBits decoder, which may stop in the
+   * middle of a run at the end of a row.
+   */
+  private class StripReader {
+    private final ByteBuffer view = data.duplicate();
+    private int literalBytes;
+    private int repeatBytes;
+    private byte repeatValue;
+
+    /**
+     * open() starts reading the strip at the given offset.
+     */
+    void open(long offset) throws IOException {
+      if (offset >= view.limit()) {
+        throw new EOFException("Strip offset beyond the end of the file.");
+      }
+      view.position((int) offset);
+      literalBytes = 0;
+      repeatBytes = 0;
+    }
+
+    /**
+     * readFully() reads length uncompressed bytes from the strip into bytes,
+     * starting at index offset.
+     */
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+      if (view.remaining() < length) {
+        throw new EOFException("Truncated strip.");
+      }
+      view.get(bytes, offset, length);
+    }
+
+    /**
+     * readByte() reads one byte from the strip.
+     */
+    private byte readByte() throws IOException {
+      if (!view.hasRemaining()) {
+        throw new EOFException("Truncated strip.");
+      }
+      return view.get();
+    }
+
+    /**
+     * unpackBits() decodes length bytes of PackBits data from the strip.  See
+     * Section 9 of the TIFF spec.
+     */
+    void unpackBits(byte[] bytes, int length) throws IOException {
+      int done = 0;
+      while (done < length) {
+        if (literalBytes > 0) {
+          int n = Math.min(literalBytes, length - done);
+          readFully(bytes, done, n);
+          literalBytes -= n;
+          done += n;
+        } else if (repeatBytes > 0) {
+          int n = Math.min(repeatBytes, length - done);
+          for (int i = 0; i < n; i++) {
+            bytes[done++] = repeatValue;
+          }
+          repeatBytes -= n;
+        } else {
+          byte header = readByte();
+          if (header >= 0) {
+            literalBytes = header + 1;
+          } else if (header != -128) {
+            repeatBytes = 1 - header;
+            repeatValue = readByte();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * TIFFDecoder() opens a TIFF file and reads its first image file directory
+   * (IFD).  No image data is read until readRow() is called.
+   *
+   * @param filename the name of the file to read.
+   * @throws UnsupportedFormatException if the file cannot be decoded, or is
+   * too large to map (2 GB or more).
+   * @throws IOException if the file cannot be read.
+   */
+  public TIFFDecoder(String filename) throws IOException {
+    // A mapping stays valid after its channel is closed.
+    FileChannel channel = FileChannel.open(Paths.get(filename),
+                                           StandardOpenOption.READ);
+    try {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new UnsupportedFormatException("File too large to map.");
+      }
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    readDirectory();
+  }
+
+  /**
+   * getWidth() returns the width of the image.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * getHeight() returns the height of the image.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * readRow() reads the next row of the image, from top to bottom, as width
+   * red, green, blue byte triples.  Grayscale rows are converted to RGB
+   * the way java.awt converts them.
+   *
+   * @param rgb receives 3 * width bytes.
+   * @param offset the index in rgb where the red byte of the row's first
+   * pixel is written.
+   * @throws EOFException if every row has already been read, or the file is
+   * truncated.
+   * @throws IOException if the file cannot be read.
+   */
+  public void readRow(byte[] rgb, int offset) throws IOException {
+    if (nextRow >= height) {
+      throw new EOFException("No more rows.");
+    }
+    for (int p = 0; p < planes.length; p++) {
+      if (nextRow % rowsPerStrip == 0) {
+        planes[p].open(stripOffsets[p * stripsPerPlane +
+                                    nextRow / rowsPerStrip]);
+      }
+      if (packBits) {
+        planes[p].unpackBits(samples[p], samples[p].length);
+      } else {
+        planes[p].readFully(samples[p], 0, samples[p].length);
+      }
+    }
+
+    if (planes.length == 3) {
+      byte[] red = samples[0];
+      byte[] green = samples[1];
+      byte[] blue = samples[2];
+      for (int x = 0; x < width; x++) {
+        rgb[offset++] = red[x];
+        rgb[offset++] = green[x];
+        rgb[offset++] = blue[x];
+      }
+    } else if (samplesPerPixel == 3) {
+      System.arraycopy(samples[0], 0, rgb, offset, 3 * width);
+    } else if (samplesPerPixel == 4) {
+      // Drop the alpha samples.
+      byte[] rgba = samples[0];
+      for (int i = 0; i < rgba.length; i += 4) {
+        rgb[offset++] = rgba[i];
+        rgb[offset++] = rgba[i + 1];
+        rgb[offset++] = rgba[i + 2];
+      }
+    } else {
+      int flip = whiteIsZero ? 0xFF : 0;
+      for (int x = 0; x < width; x++) {
+        byte gray = GRAY_TO_RGB[(samples[0][x] & 0xFF) ^ flip];
+        rgb[offset++] = gray;
+        rgb[offset++] = gray;
+        rgb[offset++] = gray;
+      }
+    }
+    nextRow++;
+  }
+
+  /**
+   * close() drops the decoder's references to the file.  The file itself was
+   * closed by the constructor, but Java cannot unmap a mapping explicitly:
+   * it stays mapped until the garbage collector reclaims it.  A program that
+   * decodes many files (such as BatchPipeline) may therefore hold several
+   * mappings at once.  They use address space and count toward the
+   * operating system's limit on mappings per process, but not toward the
+   * heap or the open-file limit, and the garbage collections that the
+   * decoded images cause reclaim them.
+   */
+  public void close() {
+    data = null;
+    planes = null;
+  }
+
+  /**
+   * readPixImage() reads a TIFF file into a new PixImage, decoding a band of
+   * rows at a time straight into the PixImage's storage.
+   *
+   * @param filename the name of the file to read.
+   * @param storage the storage layout of the new PixImage.
+   * @return a PixImage of the image.
+   * @throws UnsupportedFormatException if the file cannot be decoded.
+   * @throws IOException if the file cannot be read.
+   */
+  public static PixImage readPixImage(String filename,
+                                      PixImage.Storage storage)
+    throws IOException {
+    TIFFDecoder decoder = new TIFFDecoder(filename);
+    try {
+      int width = decoder.getWidth();
+      int height = decoder.getHeight();
+      PixImage image = new PixImage(width, height, storage);
+      byte[] rows = new byte[3 * width * Math.min(height, BAND_HEIGHT)];
+      for (int y0 = 0; y0 < height; y0 += BAND_HEIGHT) {
+        int count = Math.min(BAND_HEIGHT, height - y0);
+        for (int r = 0; r < count; r++) {
+          decoder.readRow(rows, 3 * width * r);
+        }
+        image.copyRowsFrom(y0, count, rows);
+      }
+      return image;
+    } finally {
+      decoder.close();
+    }
+  }
+
+  /**
+   * readRLE() reads a TIFF file into a run-length encoding one row at a
+   * time, so that no more than one row of pixels is ever in memory.
+   *
+   * @param filename the name of the file to read.
+   * @return a RunLengthEncoding of the image.
+   * @throws UnsupportedFormatException if the file cannot be decoded.
+   * @throws IOException if the file cannot be read.
+   */
+  public static RunLengthEncoding readRLE(String filename) throws IOException {
+    TIFFDecoder decoder = new TIFFDecoder(filename);
+    try {
+      RunLengthBuilder builder =
+        new RunLengthBuilder(decoder.getWidth(), decoder.getHeight());
+      byte[] row = new byte[3 * decoder.getWidth()];
+      for (int y = 0; y < decoder.getHeight(); y++) {
+        decoder.readRow(row, 0);
+        builder.addRow(row, 0);
+      }
+      return builder.build();
+    } finally {
+      decoder.close();
+    }
+  }
+
+  /**
+   * readDirectory() reads the header and the first IFD and checks that the
+   * image is one TIFFDecoder can read.
+   */
+  private void readDirectory() throws IOException {
+    ByteBuffer header = read(0, 8);
+    short byteOrder = header.getShort();
+    if (byteOrder == 0x4949) {  // "II"
+      order = ByteOrder.LITTLE_ENDIAN;
+    } else if (byteOrder == 0x4d4d) {  // "MM"
+      order = ByteOrder.BIG_ENDIAN;
+    } else {
+      throw new UnsupportedFormatException("Not a TIFF file.");
+    }
+    header.order(order);
+    if (header.getShort() != 42) {
+      throw new UnsupportedFormatException("Not a TIFF file.");
+    }
+    long ifdOffset = header.getInt() & 0xFFFFFFFFL;
+
+    int entryCount = read(ifdOffset, 2).getShort() & 0xFFFF;
+    ByteBuffer ifd = read(ifdOffset + 2, 12 * entryCount);
+
+    // Defaults from Section 8 of the TIFF spec.
+    long[] bitsPerSample = { 1 };
+    int compression = NO_COMPRESSION;
+    int photometric = -1;
+    samplesPerPixel = 1;
+    rowsPerStrip = Integer.MAX_VALUE;
+    int planarConfiguration = 1;
+    int extraSamples = 0;
+    stripOffsets = null;
+
+    for (int i = 0; i < entryCount; i++) {
+      int tag = ifd.getShort() & 0xFFFF;
+      int type = ifd.getShort() & 0xFFFF;
+      int count = ifd.getInt();
+      ByteBuffer value = ifd.slice().order(order);
+      ifd.position(ifd.position() + 4);
+
+      switch (tag) {
+      case IMAGE_WIDTH:
+        width = (int) values(type, count, value)[0];
+        break;
+      case IMAGE_LENGTH:
+        height = (int) values(type, count, value)[0];
+        break;
+      case BITS_PER_SAMPLE:
+        bitsPerSample = values(type, count, value);
+        break;
+      case COMPRESSION:
+        compression = (int) values(type, count, value)[0];
+        break;
+      case PHOTOMETRIC:
+        photometric = (int) values(type, count, value)[0];
+        break;
+      case STRIP_OFFSETS:
+        stripOffsets = values(type, count, value);
+        break;
+      case SAMPLES_PER_PIXEL:
+        samplesPerPixel = (int) values(type, count, value)[0];
+        break;
+      case ROWS_PER_STRIP:
+        rowsPerStrip = (int) Math.min(Integer.MAX_VALUE,
+                                      values(type, count, value)[0]);
+        break;
+      case PLANAR_CONFIGURATION:
+        planarConfiguration = (int) values(type, count, value)[0];
+        break;
+      case EXTRA_SAMPLES:
+        extraSamples = (int) values(type, count, value)[0];
+        break;
+      default:  // Other fields do not affect decoding.
+        break;
+      }
+    }
+
+    if (width <= 0 || height <= 0 || stripOffsets == null) {
+      throw new UnsupportedFormatException("Missing image dimensions or " +
+                                           "strips.");
+    }
+    for (int i = 0; i < bitsPerSample.length; i++) {
+      if (bitsPerSample[i] != 8) {
+        throw new UnsupportedFormatException("Only 8-bit samples are " +
+                                             "supported.");
+      }
+    }
+    if (compression != NO_COMPRESSION && compression != PACKBITS) {
+      throw new UnsupportedFormatException("Unsupported compression " +
+                                           compression + ".");
+    }
+    packBits = compression == PACKBITS;
+    if (!((photometric == 2 && samplesPerPixel == 3) ||
+          (photometric == 2 && samplesPerPixel == 4 &&
+           extraSamples != ASSOCIATED_ALPHA) ||
+          (photometric <= 1 && samplesPerPixel == 1))) {
+      throw new UnsupportedFormatException("Only RGB, RGB with unassociated " +
+                                           "alpha, and grayscale images " +
+                                           "are supported.");
+    }
+    whiteIsZero = photometric == 0;
+    if (planarConfiguration != 1 && planarConfiguration != 2) {
+      throw new UnsupportedFormatException("Unknown planar configuration " +
+                                           planarConfiguration + ".");
+    }
+    rowsPerStrip = Math.min(rowsPerStrip, height);
+    stripsPerPlane = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+    // Planar alpha samples are never read.
+    int planeCount = 1;
+    int planeSamples = samplesPerPixel;
+    if (planarConfiguration == 2) {
+      planeCount = Math.min(samplesPerPixel, 3);
+      planeSamples = 1;
+    }
+    if (stripOffsets.length < planeCount * stripsPerPlane) {
+      throw new UnsupportedFormatException("Too few strips.");
+    }
+    planes = new StripReader[planeCount];
+    samples = new byte[planeCount][width * planeSamples];
+    for (int p = 0; p < planeCount; p++) {
+      planes[p] = new StripReader();
+    }
+  }
+
+  /**
+   * values() decodes the values of an IFD entry, which are stored in the
+   * entry itself if they fit in four bytes, and at an offset otherwise.
+   *
+   * @param type the field type.
+   * @param count the number of values.
+   * @param value the four-byte value field of the entry.
+   * @return the values, widened to longs.
+   */
+  private long[] values(int type, int count, ByteBuffer value)
+    throws IOException {
+    int size;
+    switch (type) {
+    case BYTE:
+      size = 1;
+      break;
+    case SHORT:
+      size = 2;
+      break;
+    case LONG:
+      size = 4;
+      break;
+    default:
+      throw new UnsupportedFormatException("Unsupported field type " + type +
+                                           ".");
+    }
+
+    if (count < 1 || (long) count * size > Integer.MAX_VALUE) {
+      throw new UnsupportedFormatException("Bad field count " + count + ".");
+    }
+    ByteBuffer data = value;
+    if (count * size > 4) {
+      data = read(value.getInt(0) & 0xFFFFFFFFL, count * size);
+    }
+
+    long[] result = new long[count];
+    for (int i = 0; i < count; i++) {
+      switch (size) {
+      case 1:
+        result[i] = data.get(i) & 0xFF;
+        break;
+      case 2:
+        result[i] = data.getShort(2 * i) & 0xFFFF;
+        break;
+      default:
+        result[i] = data.getInt(4 * i) & 0xFFFFFFFFL;
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * read() returns a view of length bytes at the given position in the file.
+   *
+   * @return a buffer holding the bytes, in the file's byte order.
+   */
+  private ByteBuffer read(long position, int length) throws IOException {
+    if (position < 0 || position + length > data.limit()) {
+      throw new EOFException("Truncated TIFF file.");
+    }
+    ByteBuffer buffer = data.duplicate();
+    buffer.position((int) position);
+    buffer.limit((int) position + length);
+    buffer = buffer.slice();
+    if (order != null) {
+      buffer.order(order);
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,608 @@
+/* TIFFWriter.java */
+
+/**
+ *  The TIFFWriter class writes the same TIFF files as TIFFEncoder, byte for
+ *  byte, without boxing a Short for every byte of image data.  The image
+ *  data is encoded straight into a reusable ByteBuffer, which is written to
+ *  a FileChannel each time it fills up.  The header, which records where the
+ *  image data ends, is written last, at the start of the file.
+ *
+ *  A TIFFWriter can also split the image into strips of a fixed number of
+ *  rows (see Section 3 of the TIFF spec), listed in StripOffsets and
+ *  StripByteCounts arrays.  Each strip of a run-length encoding is then
+ *  PackBits-compressed on its own, so the strips can be compressed in
+ *  parallel.  The image data is the same either way; only the IFD differs.
+ *
+ *  TIFFEncoder can only compress gray runs, since PackBits repeats single
+ *  bytes and a color run repeats red, green, blue triples.  A TIFFWriter set
+ *  to planar mode writes a run-length encoding with PlanarConfiguration 2
+ *  instead:  the red samples of each strip, then the green, then the blue,
+ *  each in a strip of its own and compressed with a general PackBits
+ *  encoder, so runs of any color (and repeats within one channel) compress.
+ *
+ *  The width, height, and rows per strip are written as SHORTs, like
+ *  TIFFEncoder writes them, if they fit in 16 bits, and as LONGs otherwise.
+ *
+ *  A TIFFWriter may be used to write any number of files, one at a time; it
+ *  keeps its buffer and settings between them.
+ *
+ *  @see TIFFEncoder
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+public class TIFFWriter {
+
+  // The size (in bytes) of various parts of TIFF images.
+  private static final int HEADER_SIZE = 8;
+  private static final int DIR_SIZE = 12;
+  private static final int NUM_DIRS = 10;
+
+  // Field types.
+  private static final int SHORT = 3;
+  private static final int LONG = 4;
+
+  // The default size of the buffer.  It grows if a row does not fit.
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // The longest PackBits run or literal TIFFEncoder writes, in bytes.
+  private static final int MAX_PACKBITS_RUN = 126;
+
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  // The file being written, and the position in it where the contents of
+  // buffer belong.
+  private FileChannel channel;
+  private long position;
+
+  // The number of rows per strip, or 0 for a single strip.
+  private int rowsPerStrip = 0;
+
+  // The number of threads that compress strips.
+  private int parallelism = 1;
+
+  // True if run-length encodings are written with separate color planes.
+  private boolean planar = false;
+
+  /**
+   * setRowsPerStrip() sets the number of rows in each strip of the files
+   * written afterward.  0, the default, writes each image as one strip, as
+   * TIFFEncoder does.
+   *
+   * @param rowsPerStrip the number of rows per strip, or 0.
+   */
+  public void setRowsPerStrip(int rowsPerStrip) {
+    if (rowsPerStrip < 0) {
+      throw new IllegalArgumentException("Negative rows per strip.");
+    }
+    this.rowsPerStrip = rowsPerStrip;
+  }
+
+  /**
+   * setParallelism() sets the number of threads that PackBits-compress the
+   * strips of a run-length encoding.  It has no effect unless the image has
+   * more than one strip.
+   *
+   * @param parallelism the number of threads; 1, the default, compresses
+   * on the calling thread.
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * setPlanar() chooses whether run-length encodings written afterward are
+   * stored with interleaved samples (false, the default, as TIFFEncoder
+   * stores them) or in separate red, green, and blue planes (true).
+   * PixImages are always written interleaved.
+   *
+   * @param planar true to write separate color planes.
+   */
+  public void setPlanar(boolean planar) {
+    this.planar = planar;
+  }
+
+  /**
+   * write() writes the specified PixImage into an uncompressed TIFF file.
+   *
+   * @param image the PixImage.
+   * @param filename the name of the file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public void write(PixImage image, String filename) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowBytes = 3 * width;
+    if (buffer.capacity() < rowBytes) {
+      buffer = ByteBuffer.allocate(rowBytes);
+    }
+    int stripRows = stripRows(height);
+    int[] stripSizes = new int[(height + stripRows - 1) / stripRows];
+
+    open(filename);
+    try {
+      // The rows are copied straight into the buffer's backing array.
+      byte[] bytes = buffer.array();
+      for (int y = 0; y < height; y++) {
+        if (buffer.remaining() < rowBytes) {
+          flush();
+        }
+        image.copyRowTo(y, bytes, buffer.position());
+        buffer.position(buffer.position() + rowBytes);
+        stripSizes[y / stripRows] += rowBytes;
+      }
+      finish(width, height, false, false, stripRows, stripSizes);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * write() writes the given run-length encoding into a PackBits-compressed
+   * TIFF file.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public void write(RunLengthEncoding rle, String filename)
+    throws IOException {
+    final int width = rle.getWidth();
+    int height = rle.getHeight();
+    final RunLengthStore runs = rle.getRuns();
+    int stripRows = stripRows(height);
+    final int strips = (height + stripRows - 1) / stripRows;
+
+    // Find the run holding the first pixel of each strip, and how many of
+    // its pixels belong to earlier strips.
+    final int[] startChunk = new int[strips];
+    final int[] startRun = new int[strips];
+    final int[] startSkip = new int[strips];
+    final int[] stripPixels = new int[strips];
+    int s = 0;
+    int pixel = 0;  // The index of the first pixel of the current run.
+    for (int c = 0; c < runs.chunkCount() && s < strips; c++) {
+      RunLengthChunk chunk = runs.chunk(c);
+      for (int r = 0; r < chunk.size && s < strips; r++) {
+        int next = pixel + chunk.lengths[r];
+        while (s < strips && s * stripRows * width < next) {
+          startChunk[s] = c;
+          startRun[s] = r;
+          startSkip[s] = s * stripRows * width - pixel;
+          stripPixels[s] = Math.min(stripRows, height - s * stripRows) * width;
+          s++;
+        }
+        pixel = next;
+      }
+    }
+
+    // In planar mode, each strip is written three times:  strips of red
+    // samples first, then green, then blue.
+    final boolean planes = planar;
+    final int units = planes ? 3 * strips : strips;
+    final int[] stripSizes = new int[units];
+
+    ForkJoinPool pool = units > 1 ? RowBands.newPool(parallelism) : null;
+    open(filename);
+    try {
+      if (pool == null) {
+        // Compress each strip straight into the file buffer.
+        for (int u = 0; u < units; u++) {
+          s = u % strips;
+          long start = position + buffer.position();
+          packStrip(runs, width, startChunk[s], startRun[s], startSkip[s],
+                    stripPixels[s], planes ? u / strips : -1, buffer);
+          stripSizes[u] = (int) (position + buffer.position() - start);
+        }
+      } else {
+        // Compress each strip into a buffer of its own, in parallel, and
+        // then write them in order.
+        final ByteBuffer[] packed = new ByteBuffer[units];
+        RowBands.run(pool, units, 1, new RowBands.Body() {
+          public void rows(int u0, int u1) {
+            for (int u = u0; u < u1; u++) {
+              int s = u % strips;
+              try {
+                packed[u] = packStrip(runs, width, startChunk[s], startRun[s],
+                                      startSkip[s], stripPixels[s],
+                                      planes ? u / strips : -1,
+                                      ByteBuffer.allocate(stripPixels[s] + 64));
+              } catch (IOException e) {  // Only the file buffer flushes.
+                throw new UncheckedIOException(e);
+              }
+            }
+          }
+        });
+
+        flush();
+        for (int u = 0; u < units; u++) {
+          packed[u].flip();
+          stripSizes[u] = packed[u].remaining();
+          while (packed[u].hasRemaining()) {
+            position += channel.write(packed[u], position);
+          }
+        }
+      }
+      finish(width, height, true, planes, stripRows, stripSizes);
+    } finally {
+      channel.close();
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * stripRows() returns the number of rows in each strip of an image.
+   *
+   * @param height the height of the image.
+   * @return the number of rows per strip, at most height.
+   */
+  private int stripRows(int height) {
+    return rowsPerStrip == 0 ? height : Math.min(rowsPerStrip, height);
+  }
+
+  /**
+   * packStrip() PackBits-compresses one strip of a run-length encoding into
+   * out.  Runs are split exactly as TIFFEncoder splits them:  into pieces
+   * of at most MAX_PACKBITS_RUN bytes that do not cross a row boundary.  A
+   * gray piece is one repeated byte; any other is a literal.  Since strips
+   * begin at row boundaries, the strips of an image, compressed one by one
+   * and concatenated, are the same bytes as the image compressed whole.
+   *
+   * @param runs the runs of the image.
+   * @param width the width of the image.
+   * @param c the chunk holding the strip's first run.
+   * @param r the index of the strip's first run in its chunk.
+   * @param skip the number of pixels of the first run before the strip.
+   * @param pixels the number of pixels in the strip.
+   * @param plane 0, 1, or 2 to compress only the red, green, or blue
+   * samples with packPlane(); -1 to compress interleaved samples.
+   * @param out the buffer to compress into.  If it is the file buffer, it is
+   * flushed when it fills; otherwise it is replaced by a larger copy.
+   * @return the buffer holding the compressed strip.
+   * @throws IOException if the file buffer cannot be flushed.
+   */
+  private ByteBuffer packStrip(RunLengthStore runs, int width, int c, int r,
+                               int skip, int pixels, int plane,
+                               ByteBuffer out) throws IOException {
+    if (plane >= 0) {
+      return packPlane(runs, width, c, r, skip, pixels, plane, out);
+    }
+
+    int currentX = 0;  // x-position of the next pixel.
+    while (pixels > 0) {
+      RunLengthChunk chunk = runs.chunk(c);
+      int color = chunk.colors[r];
+      byte red = (byte) RunLengthStore.red(color);
+      byte green = (byte) RunLengthStore.green(color);
+      byte blue = (byte) RunLengthStore.blue(color);
+      boolean gray = red == green && red == blue;
+      int length = Math.min(chunk.lengths[r] - skip, pixels);
+      pixels -= length;
+      length *= 3;
+      skip = 0;
+
+      for (int i = 0; i < length; ) {
+        int count = Math.min(Math.min(length - i, MAX_PACKBITS_RUN),
+                             (width - currentX) * 3);
+        out = ensure(out, count + 1);
+        if (gray) {
+          out.put((byte) (1 - count));
+          out.put(red);
+        } else {
+          out.put((byte) (count - 1));
+          for (int j = 0; j < count; j += 3) {
+            out.put(red);
+            out.put(green);
+            out.put(blue);
+          }
+        }
+        currentX = (currentX + count / 3) % width;
+        i += count;
+      }
+
+      if (++r == chunk.size) {
+        r = 0;
+        c++;
+      }
+    }
+    return out;
+  }
+
+  /**
+   * packPlane() PackBits-compresses one color channel of one strip of a
+   * run-length encoding into out, one row at a time.  Its parameters are
+   * those of packStrip().
+   */
+  private ByteBuffer packPlane(RunLengthStore runs, int width, int c, int r,
+                               int skip, int pixels, int plane,
+                               ByteBuffer out) throws IOException {
+    int shift = 16 - 8 * plane;
+    byte[] row = new byte[width];
+    int x = 0;
+    while (pixels > 0) {
+      RunLengthChunk chunk = runs.chunk(c);
+      byte sample = (byte) (chunk.colors[r] >> shift);
+      int length = Math.min(chunk.lengths[r] - skip, pixels);
+      pixels -= length;
+      skip = 0;
+
+      while (length > 0) {
+        int count = Math.min(length, width - x);
+        for (int end = x + count; x < end; x++) {
+          row[x] = sample;
+        }
+        length -= count;
+        if (x == width) {
+          out = packBits(row, out);
+          x = 0;
+        }
+      }
+
+      if (++r == chunk.size) {
+        r = 0;
+        c++;
+      }
+    }
+    return out;
+  }
+
+  /**
+   * packBits() PackBits-compresses one row of samples into out.  Three or
+   * more equal bytes become a repeat run; everything else is gathered into
+   * literal runs.  Runs of either kind hold at most 128 bytes.  See Section
+   * 9 of the TIFF spec.
+   *
+   * @param row the samples of the row.
+   * @param out the buffer to compress into, as in packStrip().
+   * @return the buffer holding the compressed row.
+   * @throws IOException if the file buffer cannot be flushed.
+   */
+  private ByteBuffer packBits(byte[] row, ByteBuffer out) throws IOException {
+    int n = row.length;
+    int i = 0;
+    while (i < n) {
+      int j = i + 1;
+      while (j < n && j - i < 128 && row[j] == row[i]) {
+        j++;
+      }
+
+      if (j - i >= 3) {
+        out = ensure(out, 2);
+        out.put((byte) (1 - (j - i)));
+        out.put(row[i]);
+      } else {
+        // Extend the literal up to the next repeat of three or more bytes.
+        j = i + 1;
+        while (j < n && j - i < 128 &&
+               !(j + 2 < n && row[j] == row[j + 1] && row[j] == row[j + 2])) {
+          j++;
+        }
+        out = ensure(out, j - i + 1);
+        out.put((byte) (j - i - 1));
+        out.put(row, i, j - i);
+      }
+      i = j;
+    }
+    return out;
+  }
+
+  /**
+   * ensure() returns a buffer with room for n more bytes:  out itself if it
+   * has room, the file buffer after flushing it if out is the file buffer,
+   * and otherwise a larger copy of out.
+   */
+  private ByteBuffer ensure(ByteBuffer out, int n) throws IOException {
+    if (out.remaining() >= n) {
+      return out;
+    }
+    if (out == buffer) {
+      flush();
+      return buffer;
+    }
+    ByteBuffer larger =
+      ByteBuffer.allocate(Math.max(2 * out.capacity(), out.capacity() + n));
+    out.flip();
+    larger.put(out);
+    return larger;
+  }
+
+  /**
+   * open() creates or truncates the file and positions the buffer after the
+   * space reserved for the header.
+   */
+  private void open(String filename) throws IOException {
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                               StandardOpenOption.CREATE,
+                               StandardOpenOption.TRUNCATE_EXISTING);
+    buffer.clear();
+    position = HEADER_SIZE;
+  }
+
+  /**
+   * flush() writes the contents of the buffer to the file and empties it.
+   */
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * finish() writes the footer, which includes the image file directory
+   * (IFD), after the image data, and then the header.  The fields are those
+   * TIFFEncoder writes, in the same order.  See TIFFEncoder.writeTIFF() for
+   * their meanings.  Values that do not fit in an IFD entry follow the IFD:
+   * the bits per sample, then the strip offsets and strip byte counts if
+   * there is more than one strip.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param isCompressed true if the data is compressed in PackBits format.
+   * @param isPlanar true if the color channels are stored in separate
+   * strips.
+   * @param stripRows the number of rows per strip.
+   * @param stripSizes the number of bytes in each strip, in order.
+   */
+  private void finish(int width, int height, boolean isCompressed,
+                      boolean isPlanar, int stripRows, int[] stripSizes)
+    throws IOException {
+    flush();
+    int dataSize = (int) (position - HEADER_SIZE);
+    int strips = stripSizes.length;
+    int bitsOffset = dataSize + HEADER_SIZE + DIR_SIZE * NUM_DIRS + 6;
+    int offsetsOffset = bitsOffset + 6;
+    int countsOffset = offsetsOffset + 4 * strips;
+
+    buffer.putShort((short) NUM_DIRS);
+    putSizeTag(256, width);
+    putSizeTag(257, height);
+    putOffsetTag(258, SHORT, 3, bitsOffset);
+    putValueTag(259, SHORT, isCompressed ? 32773 : 1);
+    putValueTag(262, SHORT, 2);
+    if (strips == 1) {
+      putValueTag(273, LONG, HEADER_SIZE);
+    } else {
+      putOffsetTag(273, LONG, strips, offsetsOffset);
+    }
+    putValueTag(277, SHORT, 3);
+    putSizeTag(278, stripRows);
+    if (strips == 1) {
+      putValueTag(279, LONG, dataSize);
+    } else {
+      putOffsetTag(279, LONG, strips, countsOffset);
+    }
+    putValueTag(284, SHORT, isPlanar ? 2 : 1);
+    buffer.putInt(0);  // There are no more IFDs.
+    for (int i = 0; i < 3; i++) {
+      buffer.putShort((short) 8);  // Bits per sample of red, green, blue.
+    }
+
+    if (strips > 1) {
+      int offset = HEADER_SIZE;
+      for (int s = 0; s < strips; s++) {
+        ensure(buffer, 4).putInt(offset);
+        offset += stripSizes[s];
+      }
+      for (int s = 0; s < strips; s++) {
+        ensure(buffer, 4).putInt(stripSizes[s]);
+      }
+    }
+    flush();
+
+    buffer.putShort((short) 0x4d4d);  // Big-endian byte order.
+    buffer.putShort((short) 42);  // Magic number for TIFF files.
+    buffer.putInt(dataSize + HEADER_SIZE);  // Offset of image file dir.
+    position = 0;
+    flush();
+  }
+
+  /**
+   * putValueTag() adds an IFD entry whose single value fits into the Value
+   * Offset, left-justified.
+   *
+   * @param tag the tag that identifies the field.
+   * @param type SHORT or LONG.
+   * @param value the value of the field.
+   */
+  private void putValueTag(int tag, int type, int value) {
+    buffer.putShort((short) tag);
+    buffer.putShort((short) type);
+    buffer.putInt(1);
+    if (type == SHORT) {
+      buffer.putShort((short) value);
+      buffer.putShort((short) 0);
+    } else {
+      buffer.putInt(value);
+    }
+  }
+
+  /**
+   * putSizeTag() adds an IFD entry for a dimension, as a SHORT if it fits in
+   * 16 bits and as a LONG otherwise.
+   *
+   * @param tag the tag that identifies the field.
+   * @param value the value of the field.
+   */
+  private void putSizeTag(int tag, int value) {
+    putValueTag(tag, value <= 0xFFFF ? SHORT : LONG, value);
+  }
+
+  /**
+   * putOffsetTag() adds an IFD entry whose values are stored at another
+   * offset.
+   *
+   * @param tag the tag that identifies the field.
+   * @param type SHORT or LONG.
+   * @param count the number of values.
+   * @param offset the offset in the file where the values are stored.
+   */
+  private void putOffsetTag(int tag, int type, int count, int offset) {
+    buffer.putShort((short) tag);
+    buffer.putShort((short) type);
+    buffer.putInt(count);
+    buffer.putInt(offset);
+  }
+
+  /**
+   * writeTIFF() writes the specified PixImage into an uncompressed TIFF file.
+   * Like TIFFEncoder.writeTIFF(), it prints a stack trace if the file cannot
+   * be written.
+   *
+   * @param image the PixImage.
+   * @param filename the name of the file to write.
+   */
+  public static void writeTIFF(PixImage image, String filename) {
+    try {
+      new TIFFWriter().write(image, filename);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * writeTIFF() writes the given run-length encoding into a compressed TIFF
+   * file.  Like TIFFEncoder.writeTIFF(), it prints a stack trace if the file
+   * cannot be written.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   */
+  public static void writeTIFF(RunLengthEncoding rle, String filename) {
+    writeTIFF(rle, filename, 0, 1);
+  }
+
+  /**
+   * writeTIFF() writes the given run-length encoding into a compressed TIFF
+   * file in strips of the given number of rows, compressing the strips with
+   * the given number of threads.  The file depends only on rowsPerStrip, not
+   * on parallelism, so the same image is written the same way on any
+   * machine.  It prints a stack trace if the file cannot be written.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   * @param rowsPerStrip the number of rows per strip, or 0 for one strip
+   * (which is compressed on one thread).
+   * @param parallelism the number of threads to compress with.
+   */
+  public static void writeTIFF(RunLengthEncoding rle, String filename,
+                               int rowsPerStrip, int parallelism) {
+    TIFFWriter writer = new TIFFWriter();
+    writer.setRowsPerStrip(rowsPerStrip);
+    writer.setParallelism(parallelism);
+    try {
+      writer.write(rle, filename);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,551 @@
+/* Board.java */
+
+package player;
+
+/**
+ *  A Board is an 8-by-8 Network board.  Each color's chips are stored as one
+ *  64-bit bitboard, in which square (x, y) is bit 8 * y + x.  Masks for the
+ *  goal areas, the dead corners, and the neighbors of each square are
+ *  computed once, so that testing a move, making it, and taking it back
+ *  cost a few bit operations and allocate nothing.
+ *
+ *  A Board also keeps a Zobrist hash of its chips, for looking positions up
+ *  in a TranspositionTable, and a Network of the lines of sight between its
+ *  chips, for finding networks.  make() and unmake() update both.
+ *
+ *  Inside a Board, a move is an int (see addMove() and stepMove()), so that
+ *  the search can generate and store moves without creating Move objects.
+ *  apply() and undo() accept Move objects for moves that come from outside.
+ */
+class Board {
+
+  public static final int BLACK = 0;
+  public static final int WHITE = 1;
+  public static final int EMPTY = -1;
+
+  // The number of chips each player has.
+  public static final int CHIPS = 10;
+
+  // More than the number of legal moves in any position:  at most ten chips,
+  // each of which can step to at most 63 squares.
+  public static final int MAX_MOVES = CHIPS * 64;
+
+  // The four dead corners.
+  static final long DEAD = bit(0, 0) | bit(7, 0) | bit(0, 7) | bit(7, 7);
+
+  // GOALS[color][0] and GOALS[color][1] are the two goal areas of a color:
+  // the top and bottom rows for Black, the left and right columns for White.
+  static final long[][] GOALS = new long[2][2];
+
+  // FORBIDDEN[color] is the squares where that color may never place a chip:
+  // the dead corners and the other color's goal areas.
+  static final long[] FORBIDDEN = new long[2];
+
+  // NEIGHBORS[square] is the up to eight squares adjacent to a square.
+  static final long[] NEIGHBORS = new long[64];
+
+  // The eight directions a chip can see along.  Directions 0-3 lead to
+  // higher square indices and directions 4-7 to lower ones; direction d + 4
+  // is the opposite of direction d.
+  static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+  static final int[] DY = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+  // RAYS[d][square] is the squares seen from a square in direction d on an
+  // empty board, not including the square itself.
+  static final long[][] RAYS = new long[8][64];
+
+  static {
+    for (int i = 1; i < 7; i++) {
+      GOALS[BLACK][0] |= bit(i, 0);
+      GOALS[BLACK][1] |= bit(i, 7);
+      GOALS[WHITE][0] |= bit(0, i);
+      GOALS[WHITE][1] |= bit(7, i);
+    }
+    FORBIDDEN[BLACK] = DEAD | GOALS[WHITE][0] | GOALS[WHITE][1];
+    FORBIDDEN[WHITE] = DEAD | GOALS[BLACK][0] | GOALS[BLACK][1];
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            if ((dx != 0 || dy != 0) && onBoard(x + dx, y + dy)) {
+              NEIGHBORS[square(x, y)] |= bit(x + dx, y + dy);
+            }
+          }
+        }
+        for (int d = 0; d < 8; d++) {
+          for (int i = 1; onBoard(x + i * DX[d], y + i * DY[d]); i++) {
+            RAYS[d][square(x, y)] |= bit(x + i * DX[d], y + i * DY[d]);
+          }
+        }
+      }
+    }
+  }
+
+  // The bits of a move int:  the destination square in bits 0-5, the source
+  // square (for a step) in bits 6-11, and STEP_FLAG for a step move.
+  private static final int SQUARE_MASK = 63;
+  private static final int STEP_FLAG = 1 << 12;
+
+  // ZOBRIST[color][square] is a random key for a chip of that color on that
+  // square.  A board's hash is the XOR of the keys of its chips, so a move
+  // changes it by one or two XORs.  WHITE_TO_MOVE is XORed in when White is
+  // to move.  The seed is fixed, so hashes are the same in every run.
+  static final long[][] ZOBRIST = new long[2][64];
+  static final long WHITE_TO_MOVE;
+
+  static {
+    java.util.Random random = new java.util.Random(0x61B2L);
+    for (int color = 0; color < 2; color++) {
+      for (int square = 0; square < 64; square++) {
+        ZOBRIST[color][square] = random.nextLong();
+      }
+    }
+    WHITE_TO_MOVE = random.nextLong();
+  }
+
+  // chips[color] is the bitboard of that color's chips.
+  private final long[] chips = new long[2];
+
+  // The Zobrist hash of the chips.
+  private long hash;
+
+  // The lines of sight between the chips.
+  private final Network network = new Network();
+
+  /**
+   *  square() returns the index of square (x, y).
+   */
+  static int square(int x, int y) {
+    return 8 * y + x;
+  }
+
+  /**
+   *  bit() returns the bitboard holding only square (x, y).
+   */
+  static long bit(int x, int y) {
+    return 1L << square(x, y);
+  }
+
+  /**
+   *  onBoard() returns true if (x, y) is a square of the board.
+   */
+  static boolean onBoard(int x, int y) {
+    return x >= 0 && x < 8 && y >= 0 && y < 8;
+  }
+
+  /**
+   *  look() returns the first square in "occupied" seen from a square in
+   *  direction d, or -1 if there is none.
+   */
+  static int look(int square, int d, long occupied) {
+    long hits = RAYS[d][square] & occupied;
+    if (hits == 0) {
+      return -1;
+    } else if (d < 4) {
+      return Long.numberOfTrailingZeros(hits);
+    }
+    return 63 - Long.numberOfLeadingZeros(hits);
+  }
+
+  /**
+   *  addMove() returns the move that adds a chip to square "to".
+   */
+  static int addMove(int to) {
+    return to;
+  }
+
+  /**
+   *  stepMove() returns the move that steps a chip from square "from" to
+   *  square "to".
+   */
+  static int stepMove(int to, int from) {
+    return STEP_FLAG | (from << 6) | to;
+  }
+
+  /**
+   *  isStep() returns true if the move is a step move.
+   */
+  static boolean isStep(int move) {
+    return (move & STEP_FLAG) != 0;
+  }
+
+  /**
+   *  to() returns the square a move puts a chip on.
+   */
+  static int to(int move) {
+    return move & SQUARE_MASK;
+  }
+
+  /**
+   *  from() returns the square a step move takes a chip from.
+   */
+  static int from(int move) {
+    return (move >>> 6) & SQUARE_MASK;
+  }
+
+  /**
+   *  encode() returns the move int for an ADD or STEP Move, whose coordinates
+   *  must be on the board.
+   */
+  static int encode(Move m) {
+    if (m.moveKind == Move.STEP) {
+      return stepMove(square(m.x1, m.y1), square(m.x2, m.y2));
+    }
+    return addMove(square(m.x1, m.y1));
+  }
+
+  /**
+   *  decode() returns a new Move for a move int.
+   */
+  static Move decode(int move) {
+    int to = to(move);
+    if (isStep(move)) {
+      int from = from(move);
+      return new Move(to & 7, to >>> 3, from & 7, from >>> 3);
+    }
+    return new Move(to & 7, to >>> 3);
+  }
+
+  /**
+   *  chips() returns the bitboard of a color's chips.
+   */
+  long chips(int color) {
+    return chips[color];
+  }
+
+  /**
+   *  hash() returns the Zobrist hash of the board with a color to move.
+   */
+  long hash(int toMove) {
+    return toMove == WHITE ? hash ^ WHITE_TO_MOVE : hash;
+  }
+
+  /**
+   *  computeHash() returns the Zobrist hash of the chips, computed from
+   *  scratch.  It is for checking the hash that make() keeps.
+   */
+  long computeHash() {
+    long h = 0;
+    for (int color = 0; color < 2; color++) {
+      for (long rest = chips[color]; rest != 0; rest &= rest - 1) {
+        h ^= ZOBRIST[color][Long.numberOfTrailingZeros(rest)];
+      }
+    }
+    return h;
+  }
+
+  /**
+   *  chipCount() returns the number of chips a color has on the board.
+   */
+  int chipCount(int color) {
+    return Long.bitCount(chips[color]);
+  }
+
+  /**
+   *  colorAt() returns the color of the chip on square (x, y), or EMPTY.
+   */
+  int colorAt(int x, int y) {
+    long b = bit(x, y);
+    if ((chips[BLACK] & b) != 0) {
+      return BLACK;
+    } else if ((chips[WHITE] & b) != 0) {
+      return WHITE;
+    }
+    return EMPTY;
+  }
+
+  /**
+   *  make() makes a move for a color.  The move must be legal.
+   */
+  void make(int move, int color) {
+    int to = to(move);
+    if (isStep(move)) {
+      lift(from(move), color);
+    }
+    place(to, color);
+  }
+
+  /**
+   *  unmake() takes back a move that was the last one made for a color.
+   */
+  void unmake(int move, int color) {
+    lift(to(move), color);
+    if (isStep(move)) {
+      place(from(move), color);
+    }
+  }
+
+  /**
+   *  place() puts a chip of a color on an empty square.
+   */
+  private void place(int square, int color) {
+    network.add(square, chips[BLACK] | chips[WHITE]);
+    chips[color] |= 1L << square;
+    hash ^= ZOBRIST[color][square];
+  }
+
+  /**
+   *  lift() removes a chip of a color from a square.
+   */
+  private void lift(int square, int color) {
+    network.remove(square);
+    chips[color] &= ~(1L << square);
+    hash ^= ZOBRIST[color][square];
+  }
+
+  /**
+   *  apply() makes a legal ADD or STEP Move for a color.
+   */
+  void apply(Move m, int color) {
+    make(encode(m), color);
+  }
+
+  /**
+   *  undo() takes back an ADD or STEP Move that was the last one applied for
+   *  a color.
+   */
+  void undo(Move m, int color) {
+    unmake(encode(m), color);
+  }
+
+  /**
+   *  isLegal() returns true if the Move m is a legal move for a color.  It
+   *  checks the coordinates, the kind of move for the number of chips the
+   *  color has placed, the corners and goals, occupied squares, and clusters
+   *  of three or more chips.
+   */
+  boolean isLegal(Move m, int color) {
+    if (m == null || !onBoard(m.x1, m.y1)) {
+      return false;
+    }
+    long own = chips[color];
+    if (m.moveKind == Move.ADD) {
+      if (Long.bitCount(own) >= CHIPS) {
+        return false;
+      }
+    } else if (m.moveKind == Move.STEP) {
+      if (Long.bitCount(own) < CHIPS || !onBoard(m.x2, m.y2) ||
+          (m.x1 == m.x2 && m.y1 == m.y2) || (own & bit(m.x2, m.y2)) == 0) {
+        return false;
+      }
+      own ^= bit(m.x2, m.y2);
+    } else {
+      return false;
+    }
+    long to = bit(m.x1, m.y1);
+    long occupied = own | chips[1 - color];
+    return (to & (FORBIDDEN[color] | occupied | crowded(own))) == 0;
+  }
+
+  /**
+   *  legalMoves() writes every legal move for a color into moves, and
+   *  returns how many there are.  moves must have room for MAX_MOVES moves.
+   */
+  int legalMoves(int color, int[] moves) {
+    long own = chips[color];
+    long other = chips[1 - color];
+    int count = 0;
+    if (Long.bitCount(own) < CHIPS) {
+      long targets = ~(own | other | FORBIDDEN[color] | crowded(own));
+      while (targets != 0) {
+        int to = Long.numberOfTrailingZeros(targets);
+        targets &= targets - 1;
+        moves[count++] = addMove(to);
+      }
+    } else {
+      for (long sources = own; sources != 0; sources &= sources - 1) {
+        int from = Long.numberOfTrailingZeros(sources);
+        long rest = own ^ (1L << from);
+        long targets = ~(own | other | FORBIDDEN[color] | crowded(rest));
+        while (targets != 0) {
+          int to = Long.numberOfTrailingZeros(targets);
+          targets &= targets - 1;
+          moves[count++] = stepMove(to, from);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   *  sees() returns the chips (of either color) that the chip on a square
+   *  sees:  the first chip in each of the eight directions.
+   */
+  long sees(int square) {
+    return network.sees(square);
+  }
+
+  /**
+   *  hasNetwork() returns true if a color has a network:  six or more of its
+   *  chips, each connected to the next by a line of sight that no other chip
+   *  blocks, starting in one of its goal areas and ending in the other, that
+   *  uses no chip twice, has no chip in a goal area except the first and the
+   *  last, and changes direction at every chip.
+   */
+  boolean hasNetwork(int color) {
+    return network.hasNetwork(color, chips[color]);
+  }
+
+  /**
+   *  crowded() returns the squares where a chip added to the chips "own"
+   *  would be part of a group of three or more:  the squares next to two or
+   *  more chips, and the squares next to a chip that already has a neighbor.
+   */
+  static long crowded(long own) {
+    long once = 0;
+    long twice = 0;
+    long pairs = 0;
+    for (long rest = own; rest != 0; rest &= rest - 1) {
+      long near = NEIGHBORS[Long.numberOfTrailingZeros(rest)];
+      twice |= once & near;
+      once |= near;
+      if ((near & own) != 0) {
+        pairs |= near;
+      }
+    }
+    return twice | pairs;
+  }
+
+  /**
+   *  toString() returns the board as eight lines of text, with "B" for a
+   *  black chip, "W" for a white chip, and "." for an empty square.
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        int color = colorAt(x, y);
+        sb.append(color == BLACK ? 'B' : color == WHITE ? 'W' : '.');
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   *  doTest() checks whether the condition is true and prints the given error
+   *  message if it is not.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   *  main() runs a series of tests to ensure that Boards work correctly.
+   */
+  public static void main(String[] args) {
+    System.out.println("Testing the masks.");
+    doTest(Long.bitCount(GOALS[BLACK][0]) == 6 &&
+           Long.bitCount(GOALS[WHITE][1]) == 6 &&
+           Long.bitCount(FORBIDDEN[BLACK]) == 16 &&
+           Long.bitCount(NEIGHBORS[square(0, 0)]) == 3 &&
+           Long.bitCount(NEIGHBORS[square(0, 4)]) == 5 &&
+           Long.bitCount(NEIGHBORS[square(3, 4)]) == 8,
+           "The goal, forbidden, or neighbor masks are wrong.");
+
+    // The cluster diagram from the readme:  Black may not add a chip to any
+    // square marked X.
+    String[] diagram = { ".XXBX...",
+                         ".XBXXXX.",
+                         ".XXXXBX.",
+                         "....XBX.",
+                         "..B.XXX.",
+                         ".XX...B.",
+                         ".B...X..",
+                         "....B..." };
+    Board board = new Board();
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        if (diagram[y].charAt(x) == 'B') {
+          board.apply(new Move(x, y), BLACK);
+        }
+      }
+    }
+    System.out.println("Testing isLegal() on the readme's cluster diagram.");
+    boolean agrees = true;
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        char c = diagram[y].charAt(x);
+        boolean legal = c == '.' && x != 0 && x != 7;
+        agrees &= board.isLegal(new Move(x, y), BLACK) == legal;
+      }
+    }
+    doTest(agrees, "isLegal() disagrees with the readme's cluster diagram.");
+
+    System.out.println("Testing legalMoves() against isLegal().");
+    int[] moves = new int[MAX_MOVES];
+    int count = board.legalMoves(BLACK, moves);
+    int expected = 0;
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        if (board.isLegal(new Move(x, y), BLACK)) {
+          expected++;
+        }
+      }
+    }
+    doTest(count == expected, "legalMoves() returned " + count +
+           " add moves instead of " + expected + ".");
+
+    // Play random legal games into the step phase, checking that every
+    // generated move is legal and that undoing the moves restores the board.
+    System.out.println("Testing make() and unmake() on random games.");
+    java.util.Random random = new java.util.Random(61);
+    boolean ok = true;
+    for (int game = 0; game < 200 && ok; game++) {
+      Board b = new Board();
+      int[] played = new int[40];
+      int color = WHITE;
+      for (int ply = 0; ply < played.length; ply++) {
+        count = b.legalMoves(color, moves);
+        for (int i = 0; i < count; i++) {
+          ok &= b.isLegal(decode(moves[i]), color);
+        }
+        played[ply] = moves[random.nextInt(count)];
+        b.make(played[ply], color);
+        ok &= b.hash(BLACK) == b.computeHash();
+        color = 1 - color;
+      }
+      ok &= b.chipCount(BLACK) == CHIPS && b.chipCount(WHITE) == CHIPS;
+      for (int ply = played.length - 1; ply >= 0; ply--) {
+        color = 1 - color;
+        b.unmake(played[ply], color);
+      }
+      ok &= b.chips(BLACK) == 0 && b.chips(WHITE) == 0 && b.hash(BLACK) == 0;
+    }
+    doTest(ok, "make(), unmake(), legalMoves(), or the hash failed on a " +
+           "random game.");
+
+    // The networks from the readme:  60 - 65 - 55 - 33 - 35 - 57 and
+    // 20 - 25 - 35 - 13 - 33 - 55 - 57.  A white chip at 56 breaks only the
+    // second; another at 46 breaks the first as well.
+    System.out.println("Testing hasNetwork() on the readme's networks.");
+    board = new Board();
+    int[][] black = { {2, 0}, {6, 0}, {4, 2}, {1, 3}, {3, 3}, {2, 5},
+                      {3, 5}, {5, 5}, {6, 5}, {5, 7} };
+    for (int[] chip : black) {
+      board.apply(new Move(chip[0], chip[1]), BLACK);
+    }
+    boolean found = board.hasNetwork(BLACK) && !board.hasNetwork(WHITE);
+    board.apply(new Move(5, 6), WHITE);
+    found &= board.hasNetwork(BLACK);
+    board.apply(new Move(4, 6), WHITE);
+    found &= !board.hasNetwork(BLACK);
+    doTest(found, "hasNetwork() is wrong on the readme's networks.");
+
+    System.out.println("Testing isLegal() on bad moves.");
+    board = new Board();
+    board.apply(new Move(1, 0), BLACK);
+    doTest(!board.isLegal(new Move(0, 0), BLACK) &&
+           !board.isLegal(new Move(0, 3), BLACK) &&
+           !board.isLegal(new Move(1, 0), WHITE) &&
+           !board.isLegal(new Move(8, 3), WHITE) &&
+           !board.isLegal(new Move(2, 2, 1, 0), BLACK) &&
+           !board.isLegal(new Move(), BLACK) &&
+           board.isLegal(new Move(0, 3), WHITE),
+           "isLegal() accepted a bad move or rejected a good one.");
+  }
+}
@@ -8,20 +8,45 @@ package player;
  */
 public class MachinePlayer extends Player {
 
+  // The time allowed for each move by the one-parameter constructor, and
+  // the part of it held back for reading the clock, returning the move, and
+  // garbage collection.
+  private static final long MOVE_MILLIS = 5000;
+  private static final long SAFETY_MILLIS = 250;
+
+  private final int color;
+  private final int searchDepth;
+  private final Board board = new Board();
+  private final Search search = new Search(board);
+
   // Creates a machine player with the given color.  Color is either 0 (black)
   // or 1 (white).  (White has the first move.)
   public MachinePlayer(int color) {
+    this(color, 0);
   }
 
   // Creates a machine player with the given color and search depth.  Color is
   // either 0 (black) or 1 (white).  (White has the first move.)
   public MachinePlayer(int color, int searchDepth) {
+    this.color = color;
+    this.searchDepth = searchDepth;
   }
 
   // Returns a new move by "this" player.  Internally records the move (updates
   // the internal game board) as a move by "this" player.
   public Move chooseMove() {
-    return new Move();
+    int move;
+    if (searchDepth > 0) {
+      move = search.bestMove(color, searchDepth);
+    } else {
+      move = search.bestMoveBy(color, System.nanoTime() +
+                               (MOVE_MILLIS - SAFETY_MILLIS) * 1000000L);
+    }
+    if (move < 0) {
+      return new Move();
+    }
+    board.make(move, color);
+    return Board.decode(move);
   } 
 
   // If the Move m is legal, records the move as a move by the opponent
@@ -29,7 +54,7 @@ public class MachinePlayer extends Player {
   // illegal, returns false without modifying the internal state of "this"
   // player.  This method allows your opponents to inform you of their moves.
   public boolean opponentMove(Move m) {
-    return false;
+    return record(m, 1 - color);
   }
 
   // If the Move m is legal, records the move as a move by "this" player
@@ -38,7 +63,17 @@ public class MachinePlayer extends Player {
   // player.  This method is used to help set up "Network problems" for your
   // player to solve.
   public boolean forceMove(Move m) {
-    return false;
+    return record(m, color);
+  }
+
+  // If the Move m is legal for the given color, applies it to the internal
+  // game board and returns true; otherwise returns false.
+  private boolean record(Move m, int mover) {
+    if (!board.isLegal(m, mover)) {
+      return false;
+    }
+    board.apply(m, mover);
+    return true;
   }
 
 }
@@ -0,0 +1,161 @@
+/* Network.java */
+
+package player;
+
+/**
+ *  A Network is the graph of lines of sight between the chips on a Board,
+ *  kept up to date as chips are added and removed, and used to find out
+ *  whether a color has completed a network.
+ *
+ *  For every chip, the graph holds a bitboard of the chips it sees:  the
+ *  first chip (of either color) in each of the eight directions.  Adding a
+ *  chip only changes its own bitboard and those of the (at most eight) chips
+ *  that saw each other through its square; removing it restores them.  Both
+ *  cost a few lookups in Board.RAYS, the precomputed line-of-sight masks,
+ *  instead of a walk along the board.
+ *
+ *  hasNetwork() first floods outward from one goal area along same-color
+ *  lines of sight, which is enough to rule out most boards; only if the
+ *  flood reaches the other goal area does it search for a path that also
+ *  obeys the rules on turning and on chips in the goal areas.
+ */
+class Network {
+
+  // DIRECTION[64 * from + to] is the direction (as in Board.DX and Board.DY)
+  // from square "from" to square "to", or -1 if they are not in a line.
+  private static final byte[] DIRECTION = new byte[64 * 64];
+
+  static {
+    java.util.Arrays.fill(DIRECTION, (byte) -1);
+    for (int from = 0; from < 64; from++) {
+      for (int d = 0; d < 8; d++) {
+        for (long ray = Board.RAYS[d][from]; ray != 0; ray &= ray - 1) {
+          DIRECTION[64 * from + Long.numberOfTrailingZeros(ray)] = (byte) d;
+        }
+      }
+    }
+  }
+
+  // seen[square] is the chips that the chip on square sees.  The entries of
+  // empty squares are meaningless.
+  private final long[] seen = new long[64];
+
+  /**
+   *  add() adds a chip on square "square" to the graph.  "occupied" is the
+   *  squares of the other chips on the board.
+   */
+  void add(int square, long occupied) {
+    long b = 1L << square;
+    long sees = 0;
+    for (int d = 0; d < 4; d++) {
+      long ahead = occupied & Board.RAYS[d][square];
+      ahead &= -ahead;
+      long behind = Long.highestOneBit(occupied & Board.RAYS[d + 4][square]);
+      if (ahead != 0) {
+        int a = Long.numberOfTrailingZeros(ahead);
+        seen[a] = (seen[a] & ~behind) | b;
+      }
+      if (behind != 0) {
+        int a = Long.numberOfTrailingZeros(behind);
+        seen[a] = (seen[a] & ~ahead) | b;
+      }
+      sees |= ahead | behind;
+    }
+    seen[square] = sees;
+  }
+
+  /**
+   *  remove() removes the chip on square "square" from the graph, so that
+   *  the chips on either side of it see each other again.
+   */
+  void remove(int square) {
+    long b = 1L << square;
+    long sees = seen[square];
+    for (int d = 0; d < 4; d++) {
+      long ahead = sees & Board.RAYS[d][square];
+      long behind = sees & Board.RAYS[d + 4][square];
+      if (ahead != 0) {
+        int a = Long.numberOfTrailingZeros(ahead);
+        seen[a] = (seen[a] & ~b) | behind;
+      }
+      if (behind != 0) {
+        int a = Long.numberOfTrailingZeros(behind);
+        seen[a] = (seen[a] & ~b) | ahead;
+      }
+    }
+  }
+
+  /**
+   *  sees() returns the chips that the chip on square "square" sees.
+   */
+  long sees(int square) {
+    return seen[square];
+  }
+
+  /**
+   *  hasNetwork() returns true if a color, whose chips are "own", has a
+   *  network:  six or more of its chips, each seeing the next, starting in
+   *  one of its goal areas and ending in the other, that uses no chip twice,
+   *  has no chip in a goal area except the first and the last, and changes
+   *  direction at every chip.
+   */
+  boolean hasNetwork(int color, long own) {
+    long start = own & Board.GOALS[color][0];
+    long end = own & Board.GOALS[color][1];
+    if (start == 0 || end == 0 || Long.bitCount(own) < 6) {
+      return false;
+    }
+
+    // Flood from the first goal area through chips outside both goal areas;
+    // a network needs the flood to reach the second goal area.
+    long middle = own & ~start & ~end;
+    long reached = start;
+    long frontier = start;
+    while (frontier != 0) {
+      int square = Long.numberOfTrailingZeros(frontier);
+      frontier &= frontier - 1;
+      long next = seen[square] & (middle | end) & ~reached;
+      reached |= next;
+      frontier |= next & middle;
+    }
+    if ((reached & end) == 0) {
+      return false;
+    }
+
+    middle &= reached;
+    for (long rest = start; rest != 0; rest &= rest - 1) {
+      int square = Long.numberOfTrailingZeros(rest);
+      if (extend(square, -1, end, middle, 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  extend() returns true if a path of "length" chips, which ends at square
+   *  "last" after arriving in direction "arrived", can be extended through
+   *  the chips in "unused" to a chip in "end", making a network.
+   */
+  private boolean extend(int last, int arrived, long end, long unused,
+                         int length) {
+    long sees = seen[last];
+    if (length >= 5) {
+      for (long rest = sees & end; rest != 0; rest &= rest - 1) {
+        int next = Long.numberOfTrailingZeros(rest);
+        if (DIRECTION[64 * last + next] != arrived) {
+          return true;
+        }
+      }
+    }
+    for (long rest = sees & unused; rest != 0; rest &= rest - 1) {
+      int next = Long.numberOfTrailingZeros(rest);
+      int d = DIRECTION[64 * last + next];
+      if (d != arrived &&
+          extend(next, d, end, unused & ~(1L << next), length + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,279 @@
+/* NetworkTest.java */
+
+package player;
+
+import java.util.Random;
+
+/**
+ *  The NetworkTest class is a program that tests Board's incremental network
+ *  detection against a brute-force reference.  The reference knows nothing of
+ *  bitboards or lines of sight kept from move to move:  it walks the board
+ *  square by square and tries every path.
+ *
+ *  The tests toggle every subset of chips on several sets of squares, in Gray
+ *  code order (so each step adds or removes one chip, exercising the
+ *  incremental updates), and play random games into the step phase, checking
+ *  after each move and each move taken back.
+ */
+public class NetworkTest {
+
+  // The number of squares toggled in each exhaustive test, and the number of
+  // those that hold the opponent's chips.
+  private static final int TOGGLED = 16;
+  private static final int BLOCKERS = 4;
+
+  /**
+   *  inGoal() returns true if square (x, y) is in goal area g (0 or 1) of a
+   *  color.
+   */
+  private static boolean inGoal(int color, int g, int x, int y) {
+    int edge = g == 0 ? 0 : 7;
+    return color == Board.BLACK ? y == edge : x == edge;
+  }
+
+  /**
+   *  referenceNetwork() returns true if a color has a network on the board,
+   *  by trying every path from every chip in its first goal area.
+   */
+  static boolean referenceNetwork(Board board, int color) {
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        if (board.colorAt(x, y) == color && inGoal(color, 0, x, y)) {
+          boolean[][] used = new boolean[8][8];
+          used[x][y] = true;
+          if (referencePath(board, color, x, y, -1, used, 1)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  referencePath() returns true if the path of "length" chips marked in
+   *  "used", which ends at (x, y) after arriving in direction "arrived", can
+   *  be extended into a network.
+   */
+  private static boolean referencePath(Board board, int color, int x, int y,
+                                       int arrived, boolean[][] used,
+                                       int length) {
+    for (int d = 0; d < 8; d++) {
+      if (d == arrived) {
+        continue;
+      }
+      int nx = x + Board.DX[d];
+      int ny = y + Board.DY[d];
+      while (Board.onBoard(nx, ny) && board.colorAt(nx, ny) == Board.EMPTY) {
+        nx += Board.DX[d];
+        ny += Board.DY[d];
+      }
+      if (!Board.onBoard(nx, ny) || board.colorAt(nx, ny) != color ||
+          used[nx][ny] || inGoal(color, 0, nx, ny)) {
+        continue;
+      }
+      if (inGoal(color, 1, nx, ny)) {
+        if (length + 1 >= 6) {
+          return true;
+        }
+        continue;
+      }
+      used[nx][ny] = true;
+      boolean found = referencePath(board, color, nx, ny, d, used,
+                                    length + 1);
+      used[nx][ny] = false;
+      if (found) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  referenceSees() returns the chips that the chip on (x, y) sees, found by
+   *  walking out from it.
+   */
+  private static long referenceSees(Board board, int x, int y) {
+    long seen = 0;
+    for (int d = 0; d < 8; d++) {
+      int nx = x + Board.DX[d];
+      int ny = y + Board.DY[d];
+      while (Board.onBoard(nx, ny) && board.colorAt(nx, ny) == Board.EMPTY) {
+        nx += Board.DX[d];
+        ny += Board.DY[d];
+      }
+      if (Board.onBoard(nx, ny)) {
+        seen |= Board.bit(nx, ny);
+      }
+    }
+    return seen;
+  }
+
+  /**
+   *  agrees() returns true if the board's lines of sight and networks agree
+   *  with the reference.
+   */
+  private static boolean agrees(Board board) {
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        if (board.colorAt(x, y) != Board.EMPTY &&
+            board.sees(Board.square(x, y)) != referenceSees(board, x, y)) {
+          return false;
+        }
+      }
+    }
+    return board.hasNetwork(Board.BLACK) ==
+             referenceNetwork(board, Board.BLACK) &&
+           board.hasNetwork(Board.WHITE) ==
+             referenceNetwork(board, Board.WHITE);
+  }
+
+  /**
+   *  pick() returns a random square among "squares" that is not in "taken".
+   */
+  private static int pick(Random random, long squares, long taken) {
+    long free = squares & ~taken;
+    int n = random.nextInt(Long.bitCount(free));
+    for (int i = 0; i < n; i++) {
+      free &= free - 1;
+    }
+    return Long.numberOfTrailingZeros(free);
+  }
+
+  /**
+   *  exhaustive() toggles every subset of TOGGLED squares, chosen at random
+   *  for a color:  three in each of its goal areas, BLOCKERS for the
+   *  opponent, and the rest for the color, none in the dead corners.  Other
+   *  opponent chips are placed on a few more squares and left alone.
+   *  exhaustive() returns the number of boards on which the color has a
+   *  network, or -1 if any board disagrees with the reference.
+   */
+  private static int exhaustive(Random random, int color) {
+    Board board = new Board();
+    int[] square = new int[TOGGLED];
+    int[] owner = new int[TOGGLED];
+    long taken = 0;
+    long interior = ~(Board.FORBIDDEN[Board.BLACK] |
+                      Board.FORBIDDEN[Board.WHITE]);
+    for (int i = 0; i < TOGGLED; i++) {
+      long squares = i < 3 ? Board.GOALS[color][0]
+          : i < 6 ? Board.GOALS[color][1] : interior;
+      square[i] = pick(random, squares, taken);
+      owner[i] = i < TOGGLED - BLOCKERS ? color : 1 - color;
+      taken |= 1L << square[i];
+    }
+    for (int i = 0; i < 3; i++) {
+      int s = pick(random, interior, taken);
+      board.make(Board.addMove(s), 1 - color);
+      taken |= 1L << s;
+    }
+
+    // Gray code order:  step i toggles the chip numbered by the lowest set
+    // bit of i.  unmake() of an add move lifts that chip, wherever it was
+    // added in the sequence.
+    int networks = 0;
+    int present = 0;
+    for (int i = 1; i < 1 << TOGGLED; i++) {
+      int t = Integer.numberOfTrailingZeros(i);
+      int move = Board.addMove(square[t]);
+      if ((present & (1 << t)) == 0) {
+        board.make(move, owner[t]);
+      } else {
+        board.unmake(move, owner[t]);
+      }
+      present ^= 1 << t;
+      if (!agrees(board)) {
+        System.err.println("Disagreement on the board:\n" + board);
+        return -1;
+      }
+      if (board.hasNetwork(color)) {
+        networks++;
+      }
+    }
+    return networks;
+  }
+
+  /**
+   *  randomGames() plays random legal games of up to "plies" moves, checking
+   *  the board after every move and after taking every move back.  It
+   *  returns the number of positions in which a network was found, or -1 if
+   *  any board disagrees with the reference.
+   */
+  private static int randomGames(Random random, int games, int plies) {
+    int[] moves = new int[Board.MAX_MOVES];
+    int[] played = new int[plies];
+    int networks = 0;
+    for (int game = 0; game < games; game++) {
+      Board board = new Board();
+      int color = Board.WHITE;
+      int ply = 0;
+      while (ply < plies) {
+        int count = board.legalMoves(color, moves);
+        if (count == 0) {
+          break;
+        }
+        played[ply++] = moves[random.nextInt(count)];
+        board.make(played[ply - 1], color);
+        if (!agrees(board)) {
+          System.err.println("Disagreement after a move:\n" + board);
+          return -1;
+        }
+        if (board.hasNetwork(Board.BLACK) || board.hasNetwork(Board.WHITE)) {
+          networks++;
+        }
+        color = 1 - color;
+      }
+      while (ply > 0) {
+        color = 1 - color;
+        board.unmake(played[--ply], color);
+        if (!agrees(board)) {
+          System.err.println("Disagreement after a take-back:\n" + board);
+          return -1;
+        }
+      }
+    }
+    return networks;
+  }
+
+  /**
+   *  doTest() checks whether the condition is true and prints the given error
+   *  message if it is not.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   *  main() runs the tests.
+   */
+  public static void main(String[] args) {
+    Random random = new Random(2014);
+
+    int total = 0;
+    for (int color = 0; color < 2; color++) {
+      for (int round = 0; round < 6; round++) {
+        System.out.println("Testing every subset of " + TOGGLED +
+                           " squares for " +
+                           (color == Board.BLACK ? "Black" : "White") + ".");
+        int networks = exhaustive(random, color);
+        System.out.println("  " + networks + " of " + ((1 << TOGGLED) - 1) +
+                           " boards have networks.");
+        doTest(networks >= 0, "The network detection disagrees with the " +
+               "reference.");
+        total += Math.max(networks, 0);
+      }
+    }
+    // Make sure the boards tested include networks as well as non-networks.
+    doTest(total > 0, "No board tested had a network.");
+
+    System.out.println("Testing random games into the step phase.");
+    int networks = randomGames(random, 500, 80);
+    System.out.println("  " + networks + " positions have networks.");
+    doTest(networks >= 0, "The network detection disagrees with the " +
+           "reference.");
+  }
+}
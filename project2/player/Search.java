@@ -0,0 +1,456 @@
+/* Search.java */
+
+package player;
+
+/**
+ *  A Search chooses moves by alpha-beta search of the game tree.  It makes
+ *  and unmakes moves on a single Board, so no board is copied per node, and
+ *  it keeps one preallocated move list per ply, so the search allocates
+ *  nothing once it is constructed.
+ *
+ *  Scores are from the point of view of the player to move (negamax).  A win
+ *  scores WIN minus the number of plies it takes, so that a quicker win is
+ *  preferred to a slower one.
+ *
+ *  A search deepens iteratively:  it searches one ply ahead, then two, and
+ *  so on, until it reaches the requested depth or its deadline passes.  A
+ *  search cut off by the deadline is thrown away, and the move found by the
+ *  deepest finished search is played.
+ *
+ *  Positions searched are remembered in a TranspositionTable, keyed by the
+ *  board's Zobrist hash and the color to move, so a position reached again
+ *  by another order of moves reuses the earlier result when it was searched
+ *  deeply enough.
+ *
+ *  Moves are searched in order of a cheap estimate of their value:  the move
+ *  on the previous search's principal variation first, then the best move
+ *  the transposition table remembers for the position, then the two most
+ *  recent moves that caused a cutoff at the same ply ("killer moves"), then
+ *  moves that connect to more of the mover's chips and reach an empty goal
+ *  area.
+ */
+class Search {
+
+  // The score of a win on the move that was just made.
+  static final int WIN = 1000000;
+
+  // The deepest search supported.
+  static final int MAX_PLY = 64;
+
+  // Evaluation weights.  A chip in a goal area is worth GOAL_WEIGHT, once
+  // per goal area.  Each pair of chips that see each other is worth
+  // PAIR_WEIGHT.
+  private static final int GOAL_WEIGHT = 40;
+  private static final int PAIR_WEIGHT = 10;
+
+  // Ordering keys for the principal variation's move and for killer moves,
+  // above any heuristic key.
+  private static final int PV_KEY = 1 << 22;
+  private static final int TABLE_KEY = 1 << 21;
+  private static final int KILLER_KEY = 1 << 20;
+
+  // The transposition table has 2^TABLE_BITS entries (about 20 MB).
+  private static final int TABLE_BITS = 20;
+
+  // The clock is read once every CLOCK_INTERVAL + 1 nodes.
+  private static final int CLOCK_INTERVAL = 255;
+
+  private final Board board;
+  private final TranspositionTable table =
+      new TranspositionTable(TABLE_BITS);
+  private final int[][] moves = new int[MAX_PLY][Board.MAX_MOVES];
+  private final int[][] keys = new int[MAX_PLY][Board.MAX_MOVES];
+  private final int[][] killers = new int[MAX_PLY][2];
+
+  // pv[ply] holds the best line found from the node being searched at ply,
+  // which is pvLength[ply] moves long.  principal holds the best line of the
+  // last search that finished.
+  private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY];
+  private final int[] pvLength = new int[MAX_PLY + 1];
+  private final int[] principal = new int[MAX_PLY];
+  private int principalLength;
+
+  // timed is true if the search must stop at "deadline", a System.nanoTime()
+  // value; untimed searches run to their full depth.
+  private boolean timed;
+  private long deadline;
+  private boolean aborted;
+  private int depth;
+  private long nodes;
+  private long nanos;
+
+  /**
+   *  Search() constructs a search that plays on the given board.  The board
+   *  is changed during a search, but is restored before the search returns
+   *  (even when it runs out of time).
+   */
+  Search(Board board) {
+    this.board = board;
+  }
+
+  /**
+   *  bestMove() searches "depth" plies ahead and returns the best move for
+   *  a color, or -1 if the color has no legal move.
+   */
+  int bestMove(int color, int depth) {
+    return deepen(color, Math.min(depth, MAX_PLY - 1), false, 0);
+  }
+
+  /**
+   *  bestMoveBy() searches as deeply as it can before System.nanoTime()
+   *  reaches "deadline", and returns the best move for a color found by the
+   *  deepest search that finished, or -1 if the color has no legal move.
+   *  If not even a one-ply search finishes, it returns a legal move.
+   */
+  int bestMoveBy(int color, long deadline) {
+    return deepen(color, MAX_PLY - 1, true, deadline);
+  }
+
+  /**
+   *  deepen() searches 1, 2, 3, ... plies ahead until it has searched
+   *  maxDepth plies, the outcome of the game is certain, or the deadline
+   *  passes.  Each search tries the previous search's principal variation
+   *  (its expected line of play) first, so the shallow searches are repaid
+   *  by better move ordering in the deep ones.  The deadline applies only if
+   *  "timed" is true.
+   */
+  private int deepen(int color, int maxDepth, boolean timed, long deadline) {
+    long start = System.nanoTime();
+    this.timed = timed;
+    this.deadline = deadline;
+    aborted = false;
+    nodes = 0;
+    depth = 0;
+    principalLength = 0;
+    table.newSearch();
+    table.clearCounters();
+    for (int[] pair : killers) {
+      pair[0] = -1;
+      pair[1] = -1;
+    }
+    int best = board.legalMoves(color, moves[0]) > 0 ? moves[0][0] : -1;
+    for (int d = 1; d <= maxDepth && best >= 0; d++) {
+      int score = alphaBeta(color, d, 0, -WIN - 1, WIN + 1, true);
+      if (aborted) {
+        break;
+      }
+      depth = d;
+      principalLength = pvLength[0];
+      System.arraycopy(pv[0], 0, principal, 0, principalLength);
+      best = principal[0];
+      if (Math.abs(score) >= WIN - MAX_PLY) {
+        break;
+      }
+    }
+    nanos = System.nanoTime() - start;
+    return best;
+  }
+
+  /**
+   *  alphaBeta() returns the score of the board for the color to move,
+   *  searching "depth" more plies.  "ply" is the distance from the root.
+   *  The score is exact if it lies strictly between alpha and beta; if it is
+   *  at most alpha or at least beta, it is only a bound.  onPv is true if
+   *  every move leading here is on the previous principal variation.
+   *
+   *  If the deadline passes, alphaBeta() sets "aborted" and returns 0, and
+   *  every caller discards the result.
+   */
+  private int alphaBeta(int color, int depth, int ply, int alpha, int beta,
+                        boolean onPv) {
+    pvLength[ply] = 0;
+    // nanoTime() values are compared by their difference, which stays
+    // correct if the clock wraps around.
+    if ((++nodes & CLOCK_INTERVAL) == 0 && timed &&
+        System.nanoTime() - deadline >= 0) {
+      aborted = true;
+    }
+    if (aborted) {
+      return 0;
+    }
+    if (ply > 0) {
+      // If a move completes networks for both players, the mover loses.
+      if (board.hasNetwork(color)) {
+        return WIN - ply;
+      } else if (board.hasNetwork(1 - color)) {
+        return -(WIN - ply);
+      } else if (depth <= 0 || ply >= MAX_PLY - 1) {
+        return evaluate(color);
+      }
+    }
+
+    // Look the position up.  An entry searched at least as deeply may settle
+    // the score; otherwise its move is searched early.
+    long key = board.hash(color);
+    int tableMove = -1;
+    int entry = table.find(key);
+    if (entry >= 0) {
+      tableMove = table.move(entry);
+      if (ply > 0 && table.depth(entry) >= depth) {
+        int score = fromTable(table.score(entry), ply);
+        int bound = table.bound(entry);
+        if (bound == TranspositionTable.EXACT ||
+            (bound == TranspositionTable.LOWER && score >= beta) ||
+            (bound == TranspositionTable.UPPER && score <= alpha)) {
+          return Math.max(alpha, Math.min(beta, score));
+        }
+      }
+    }
+
+    int count = board.legalMoves(color, moves[ply]);
+    if (count == 0) {
+      return evaluate(color);
+    }
+    int pvMove = onPv && ply < principalLength ? principal[ply] : -1;
+    orderKeys(color, ply, count, pvMove, tableMove);
+    int original = alpha;
+    int best = -1;
+    for (int i = 0; i < count; i++) {
+      int move = pickNext(ply, i, count);
+      board.make(move, color);
+      int score = -alphaBeta(1 - color, depth - 1, ply + 1, -beta, -alpha,
+                             move == pvMove);
+      board.unmake(move, color);
+      if (aborted) {
+        return 0;
+      }
+      if (score > alpha) {
+        alpha = score;
+        best = move;
+        pv[ply][0] = move;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+        pvLength[ply] = pvLength[ply + 1] + 1;
+        if (alpha >= beta) {
+          if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+          }
+          break;
+        }
+      }
+    }
+    byte bound = alpha >= beta ? TranspositionTable.LOWER
+        : alpha > original ? TranspositionTable.EXACT
+        : TranspositionTable.UPPER;
+    table.store(key, depth, bound, toTable(alpha, ply), best);
+    return alpha;
+  }
+
+  /**
+   *  toTable() converts a score at a ply into a score for the transposition
+   *  table.  Win scores count plies from the root; in the table they count
+   *  plies from the position itself, so they stay right when the position
+   *  is reached at a different ply.
+   */
+  private static int toTable(int score, int ply) {
+    if (score >= WIN - MAX_PLY) {
+      return score + ply;
+    } else if (score <= -(WIN - MAX_PLY)) {
+      return score - ply;
+    }
+    return score;
+  }
+
+  /**
+   *  fromTable() converts a score from the transposition table into a score
+   *  at a ply.
+   */
+  private static int fromTable(int score, int ply) {
+    if (score >= WIN - MAX_PLY) {
+      return score - ply;
+    } else if (score <= -(WIN - MAX_PLY)) {
+      return score + ply;
+    }
+    return score;
+  }
+
+  /**
+   *  evaluate() estimates the value of a board with no network for a color.
+   */
+  int evaluate(int color) {
+    return strength(color) - strength(1 - color);
+  }
+
+  /**
+   *  strength() scores one color's chips:  its goal areas that hold a chip,
+   *  and its pairs of chips that see each other.
+   */
+  private int strength(int color) {
+    long own = board.chips(color);
+    int score = 0;
+    if ((own & Board.GOALS[color][0]) != 0) {
+      score += GOAL_WEIGHT;
+    }
+    if ((own & Board.GOALS[color][1]) != 0) {
+      score += GOAL_WEIGHT;
+    }
+    // Each pair is counted once from each end.
+    int ends = 0;
+    for (long rest = own; rest != 0; rest &= rest - 1) {
+      ends += Long.bitCount(board.sees(Long.numberOfTrailingZeros(rest)) & own);
+    }
+    return score + PAIR_WEIGHT * (ends / 2);
+  }
+
+  /**
+   *  orderKeys() computes the ordering key of each of the first "count"
+   *  moves at a ply.  pvMove and then tableMove, if not -1, are searched
+   *  first.
+   */
+  private void orderKeys(int color, int ply, int count, int pvMove,
+                         int tableMove) {
+    long own = board.chips(color);
+    long occupied = own | board.chips(1 - color);
+    long emptyGoals = 0;
+    for (int g = 0; g < 2; g++) {
+      if ((own & Board.GOALS[color][g]) == 0) {
+        emptyGoals |= Board.GOALS[color][g];
+      }
+    }
+    int[] list = moves[ply];
+    int[] key = keys[ply];
+    for (int i = 0; i < count; i++) {
+      int move = list[i];
+      if (move == pvMove) {
+        key[i] = PV_KEY;
+        continue;
+      } else if (move == tableMove) {
+        key[i] = TABLE_KEY;
+        continue;
+      } else if (move == killers[ply][0] || move == killers[ply][1]) {
+        key[i] = KILLER_KEY;
+        continue;
+      }
+      int to = Board.to(move);
+      long seenFrom = Board.isStep(move)
+          ? occupied & ~(1L << Board.from(move)) : occupied;
+      int k = (emptyGoals & (1L << to)) != 0 ? GOAL_WEIGHT : 0;
+      for (int d = 0; d < 8; d++) {
+        int seen = Board.look(to, d, seenFrom);
+        if (seen >= 0 && (own & (1L << seen)) != 0) {
+          k += PAIR_WEIGHT;
+        }
+      }
+      key[i] = k;
+    }
+  }
+
+  /**
+   *  pickNext() moves the remaining move with the highest key at a ply into
+   *  position i and returns it.  Picking one move at a time is cheaper than
+   *  sorting when a cutoff comes early.
+   */
+  private int pickNext(int ply, int i, int count) {
+    int[] list = moves[ply];
+    int[] key = keys[ply];
+    int best = i;
+    for (int j = i + 1; j < count; j++) {
+      if (key[j] > key[best]) {
+        best = j;
+      }
+    }
+    int move = list[best];
+    list[best] = list[i];
+    list[i] = move;
+    int k = key[best];
+    key[best] = key[i];
+    key[i] = k;
+    return move;
+  }
+
+  /**
+   *  depth() returns the depth of the deepest search that finished in the
+   *  last call to bestMove() or bestMoveBy().
+   */
+  int depth() {
+    return depth;
+  }
+
+  /**
+   *  nodes() returns the number of nodes visited by the last search.
+   */
+  long nodes() {
+    return nodes;
+  }
+
+  /**
+   *  nanos() returns the time taken by the last search, in nanoseconds.
+   */
+  long nanos() {
+    return nanos;
+  }
+
+  /**
+   *  table() returns the transposition table, whose hit and miss counts are
+   *  those of the last search.
+   */
+  TranspositionTable table() {
+    return table;
+  }
+
+  /**
+   *  report() describes the last search:  its depth, nodes, time, nodes per
+   *  second, and transposition table hit rate.
+   */
+  String report() {
+    long probes = table.hits() + table.misses();
+    return String.format("depth %d, %d nodes in %.1f ms (%.0f knodes/s), " +
+                         "table hits %.1f%%", depth, nodes, nanos / 1e6,
+                         nanos == 0 ? 0 : nodes * 1e6 / nanos,
+                         probes == 0 ? 0 : 100.0 * table.hits() / probes);
+  }
+
+  /**
+   *  main() plays a game between two searches of the given depth (default
+   *  4), or with the given time per move in milliseconds, printing each move
+   *  and the nodes per second of each search.  With a time per move, it also
+   *  prints the longest time any search took.
+   *
+   *  Usage:  java player.Search [depth | -ms millis] [plies]
+   */
+  public static void main(String[] args) {
+    int depth = 4;
+    long millis = 0;
+    int a = 0;
+    if (args.length > a && args[a].equals("-ms")) {
+      millis = Long.parseLong(args[a + 1]);
+      a += 2;
+    } else if (args.length > a) {
+      depth = Integer.parseInt(args[a++]);
+    }
+    int plies = args.length > a ? Integer.parseInt(args[a]) : 30;
+    long longest = 0;
+    Board board = new Board();
+    Search search = new Search(board);
+    long nodes = 0;
+    long nanos = 0;
+    int color = Board.WHITE;
+    for (int ply = 0; ply < plies; ply++) {
+      int move = millis > 0
+          ? search.bestMoveBy(color, System.nanoTime() + millis * 1000000)
+          : search.bestMove(color, depth);
+      longest = Math.max(longest, search.nanos());
+      if (move < 0) {
+        break;
+      }
+      board.make(move, color);
+      nodes += search.nodes();
+      nanos += search.nanos();
+      System.out.println((color == Board.WHITE ? "White " : "Black ") +
+                         Board.decode(move) + ":  " + search.report());
+      if (board.hasNetwork(color) || board.hasNetwork(1 - color)) {
+        System.out.println("Network completed.");
+        break;
+      }
+      color = 1 - color;
+    }
+    System.out.print(board);
+    System.out.println(String.format("Total:  %d nodes in %.1f s " +
+                                     "(%.0f knodes/s)", nodes, nanos / 1e9,
+                                     nanos == 0 ? 0 : nodes * 1e6 / nanos));
+    if (millis > 0) {
+      System.out.println(String.format("Longest search:  %.1f ms of %d ms",
+                                       longest / 1e6, millis));
+    }
+  }
+}
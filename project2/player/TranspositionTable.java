@@ -0,0 +1,156 @@
+/* TranspositionTable.java */
+
+package player;
+
+/**
+ *  A TranspositionTable remembers the results of searches of positions, so
+ *  that a position reached again by a different order of moves need not be
+ *  searched again.  It is a fixed-size hash table of 2^k entries, indexed by
+ *  the low bits of a position's Zobrist hash.  Each entry holds the full
+ *  hash (to tell positions that share an index apart), the depth searched,
+ *  whether the score is exact or a bound, the score, and the best move.
+ *  The fields are kept in parallel primitive arrays, so the table is a few
+ *  large arrays rather than millions of objects.
+ *
+ *  When two positions compete for an entry, the one searched more deeply is
+ *  kept (replace-by-depth), except that an entry left over from an earlier
+ *  call to newSearch() can always be replaced.
+ *
+ *  The table counts its hits (lookups that found the position) and misses.
+ */
+class TranspositionTable {
+
+  // Kinds of scores.  EXACT is the true score to the depth searched; LOWER
+  // and UPPER mean the true score is at least or at most the score stored.
+  static final byte EXACT = 0;
+  static final byte LOWER = 1;
+  static final byte UPPER = 2;
+
+  private final int mask;
+  private final long[] keys;
+  private final int[] scores;
+  private final int[] moves;
+  private final byte[] depths;
+  private final byte[] bounds;
+  private final byte[] ages;
+
+  // The age of entries stored since the last call to newSearch().  Ages
+  // start at 1, so an entry of age 0 is empty.
+  private byte age = 1;
+
+  private long hits;
+  private long misses;
+
+  /**
+   *  TranspositionTable() constructs an empty table with 2^log2Size
+   *  entries.
+   */
+  TranspositionTable(int log2Size) {
+    int size = 1 << log2Size;
+    mask = size - 1;
+    keys = new long[size];
+    scores = new int[size];
+    moves = new int[size];
+    depths = new byte[size];
+    bounds = new byte[size];
+    ages = new byte[size];
+  }
+
+  /**
+   *  newSearch() marks every entry as left over from an earlier search, so
+   *  that it may be replaced by any new entry.  The entries can still be
+   *  found.
+   */
+  void newSearch() {
+    age++;
+    if (age == 0) {
+      // The age wrapped around; forget the ages rather than confuse them.
+      java.util.Arrays.fill(ages, (byte) 0);
+      age = 1;
+    }
+  }
+
+  /**
+   *  find() returns the index of the entry for the position with the given
+   *  hash, or -1 if it is not in the table.  The fields of a found entry are
+   *  read with depth(), bound(), score(), and move().
+   */
+  int find(long key) {
+    int i = (int) key & mask;
+    if (ages[i] != 0 && keys[i] == key) {
+      hits++;
+      return i;
+    }
+    misses++;
+    return -1;
+  }
+
+  /**
+   *  depth() returns the depth searched for entry i.
+   */
+  int depth(int i) {
+    return depths[i];
+  }
+
+  /**
+   *  bound() returns whether entry i's score is EXACT, a LOWER bound, or an
+   *  UPPER bound.
+   */
+  int bound(int i) {
+    return bounds[i];
+  }
+
+  /**
+   *  score() returns the score stored in entry i.
+   */
+  int score(int i) {
+    return scores[i];
+  }
+
+  /**
+   *  move() returns the best move stored in entry i, or -1 if none.
+   */
+  int move(int i) {
+    return moves[i];
+  }
+
+  /**
+   *  store() records the result of searching the position with the given
+   *  hash, unless its entry holds a deeper search of another position from
+   *  the current search.
+   */
+  void store(long key, int depth, byte bound, int score, int move) {
+    int i = (int) key & mask;
+    if (ages[i] == age && keys[i] != key && depths[i] > depth) {
+      return;
+    }
+    keys[i] = key;
+    depths[i] = (byte) depth;
+    bounds[i] = bound;
+    scores[i] = score;
+    moves[i] = move;
+    ages[i] = age;
+  }
+
+  /**
+   *  hits() returns the number of lookups that found their position.
+   */
+  long hits() {
+    return hits;
+  }
+
+  /**
+   *  misses() returns the number of lookups that did not.
+   */
+  long misses() {
+    return misses;
+  }
+
+  /**
+   *  clearCounters() sets the hit and miss counts to zero.
+   */
+  void clearCounters() {
+    hits = 0;
+    misses = 0;
+  }
+}